@@ -0,0 +1,64 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.SplittableRandom;
+
+/**
+ * Fixed inputs for the benchmarks, dealt from a seeded generator so every
+ * run measures the same deals.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+final class Deals {
+
+	private Deals() {
+	}
+
+	/**
+	 * Deal hands without repeated cards within a hand
+	 *
+	 * @param random the seeded generator
+	 * @param hands number of hands
+	 * @param size cards per hand
+	 * @return the card indices, size per hand
+	 */
+	static int[] cards(SplittableRandom random, int hands, int size) {
+		int[] deck = new int[Card.NUM_CARDS];
+		for(int i = 0; i < deck.length; i++) deck[i] = i;
+		int[] cards = new int[hands * size];
+		for(int h = 0; h < hands; h++) {
+			for(int j = 0; j < size; j++) {
+				int k = j + random.nextInt(deck.length - j);
+				int t = deck[j];
+				deck[j] = deck[k];
+				deck[k] = t;
+				cards[h * size + j] = deck[j];
+			}
+		}
+		return cards;
+	}
+
+	/**
+	 * Deal hands as strings of cards, e.g. "AhKd"
+	 *
+	 * @param random the seeded generator
+	 * @param hands number of hands
+	 * @param size cards per hand
+	 * @return the hands
+	 */
+	static String[] strings(SplittableRandom random, int hands, int size) {
+		int[] cards = cards(random, hands, size);
+		String[] strings = new String[hands];
+		for(int h = 0; h < hands; h++) {
+			StringBuilder sb = new StringBuilder();
+			for(int j = 0; j < size; j++) {
+				sb.append(new Card(cards[h * size + j]));
+			}
+			strings[h] = sb.toString();
+		}
+		return strings;
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Average time of hand strength on the flop, turn and river and of hand
+ * potential and effective hand strength one and two cards ahead on the
+ * flop. The deals are fixed by a
+ * seed and cycled through, so every run measures the same mix of easy and
+ * hard deals.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EquityBenchmark {
+
+	/** Number of deals, a power of two */
+	static final int DEALS = 1 << 6;
+
+	@State(Scope.Thread)
+	public static class Strength {
+
+		@Param({"3", "4", "5"})
+		int boardSize;
+
+		String[] hole;
+
+		String[] board;
+
+		long[] holeSet;
+
+		long[] boardSet;
+
+		int next;
+
+		@Setup
+		public void setup() {
+			String[] deals = Deals.strings(new SplittableRandom(7), DEALS,
+										   2 + boardSize);
+			hole = new String[DEALS];
+			board = new String[DEALS];
+			holeSet = new long[DEALS];
+			boardSet = new long[DEALS];
+			for(int d = 0; d < DEALS; d++) {
+				hole[d] = deals[d].substring(0, 4);
+				board[d] = deals[d].substring(4);
+				holeSet[d] = CardSet.parse(hole[d]);
+				boardSet[d] = CardSet.parse(board[d]);
+			}
+		}
+
+	}
+
+	@State(Scope.Thread)
+	public static class Potential {
+
+		@Param({"1", "2"})
+		int ahead;
+
+		String[] hole;
+
+		String[] board;
+
+		long[] holeSet;
+
+		long[] boardSet;
+
+		int next;
+
+		@Setup
+		public void setup() {
+			String[] deals = Deals.strings(new SplittableRandom(11), DEALS, 5);
+			hole = new String[DEALS];
+			board = new String[DEALS];
+			holeSet = new long[DEALS];
+			boardSet = new long[DEALS];
+			for(int d = 0; d < DEALS; d++) {
+				hole[d] = deals[d].substring(0, 4);
+				board[d] = deals[d].substring(4);
+				holeSet[d] = CardSet.parse(hole[d]);
+				boardSet[d] = CardSet.parse(board[d]);
+			}
+		}
+
+	}
+
+	@Benchmark
+	public double handStrength(Strength s) {
+		int d = s.next++ & (DEALS - 1);
+		return Hand.handStrength(s.hole[d], s.board[d]);
+	}
+
+	@Benchmark
+	public double handStrengthCardSet(Strength s) {
+		int d = s.next++ & (DEALS - 1);
+		return Hand.handStrength(s.holeSet[d], s.boardSet[d]);
+	}
+
+	@Benchmark
+	public double[] handPotential(Potential p) {
+		int d = p.next++ & (DEALS - 1);
+		return Hand.handPotential(p.hole[d], p.board[d], p.ahead);
+	}
+
+	@Benchmark
+	public double[] parallelHandPotential(Potential p) {
+		int d = p.next++ & (DEALS - 1);
+		return Hand.parallelHandPotential(p.hole[d], p.board[d], p.ahead);
+	}
+
+	@Benchmark
+	public double[] effectiveHandStrength(Potential p) {
+		int d = p.next++ & (DEALS - 1);
+		return Hand.effectiveHandStrength(p.hole[d], p.board[d], p.ahead);
+	}
+
+}
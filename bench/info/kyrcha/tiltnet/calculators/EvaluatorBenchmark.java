@@ -0,0 +1,109 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of ranking hands of 5, 6 and 7 cards, with the reference
+ * {@link Hand#rankHand(Hand)}, the table evaluator and the batch API, and
+ * of ranking masks with the scalar batch path and with {@link SimdEvaluator}
+ * (vectorized when <code>ant vector.build</code> has compiled the vector
+ * path, which the fork turns on). The hands are dealt once from a fixed
+ * seed and cycled through.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector",
+								   "-Dtiltnet.vector=true"})
+public class EvaluatorBenchmark {
+
+	/** Number of hands, a power of two */
+	static final int HANDS = 1 << 12;
+
+	@Param({"5", "6", "7"})
+	int size;
+
+	Hand[] hands;
+
+	int[] cards;
+
+	long[] masks;
+
+	int[] ranks;
+
+	int next;
+
+	@Setup
+	public void setup() {
+		hands = new Hand[HANDS];
+		cards = Deals.cards(new SplittableRandom(42), HANDS, size);
+		ranks = new int[HANDS];
+		masks = new long[HANDS];
+		for(int h = 0; h < HANDS; h++) {
+			hands[h] = new Hand();
+			for(int j = 0; j < size; j++) {
+				hands[h].addCard(new Card(cards[h * size + j]));
+				masks[h] |= CardSet.of(cards[h * size + j]);
+			}
+		}
+	}
+
+	@Benchmark
+	public int reference() {
+		return Hand.rankHand(hands[next++ & (HANDS - 1)]);
+	}
+
+	@Benchmark
+	public int rankHand() {
+		return hands[next++ & (HANDS - 1)].rankHand();
+	}
+
+	@Benchmark
+	public int table() {
+		int h = next++ & (HANDS - 1);
+		return HandEvaluator.rank(cards, h * size, size);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(HANDS)
+	public int[] batch() {
+		BatchEvaluator.rank(cards, size, ranks);
+		return ranks;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(HANDS)
+	public int[] batchMasks() {
+		BatchEvaluator.rank(masks, ranks);
+		return ranks;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(HANDS)
+	public int[] simd() {
+		SimdEvaluator.rank(masks, ranks);
+		return ranks;
+	}
+
+}
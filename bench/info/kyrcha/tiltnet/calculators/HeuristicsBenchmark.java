@@ -0,0 +1,69 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of Chen's formula on fixed hole cards and of shuffling and
+ * dealing from a seeded deck.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeuristicsBenchmark {
+
+	/** Number of hole card pairs, a power of two */
+	static final int HANDS = 1 << 10;
+
+	String[] holeCards;
+
+	Deck deck;
+
+	int[] dealt;
+
+	int next;
+
+	@Setup
+	public void setup() {
+		holeCards = Deals.strings(new SplittableRandom(3), HANDS, 2);
+		deck = new Deck(5);
+		dealt = new int[Hand.MAX_CARDS];
+	}
+
+	@Benchmark
+	public double chenFormula() {
+		return Heuristics.ChenFormula(holeCards[next++ & (HANDS - 1)]);
+	}
+
+	@Benchmark
+	public Deck shuffle() {
+		deck.shuffle();
+		return deck;
+	}
+
+	@Benchmark
+	public int[] deal() {
+		deck.deal(Hand.MAX_CARDS, dealt);
+		return dealt;
+	}
+
+}
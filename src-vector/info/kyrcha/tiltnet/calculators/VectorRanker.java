@@ -0,0 +1,108 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The lane arithmetic of {@link SimdEvaluator} on the preferred long
+ * vectors of the platform, e.g. four hands per instruction with AVX2 and
+ * two with NEON. Loaded by name by {@link SimdEvaluator}, so that only
+ * this class depends on <code>jdk.incubator.vector</code>.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+final class VectorRanker implements SimdEvaluator.Ranker {
+
+	private final static VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+	private final static long RANK_MASK = SimdEvaluator.RANK_MASK;
+
+	private final static long FIELDS = SimdEvaluator.FIELDS;
+
+	private final static int R = Card.NUM_RANKS;
+
+	/** Lanes stored per thread, the bit planes then the flags of each hand */
+	private final static ThreadLocal<long[]> LANES =
+		ThreadLocal.withInitial(() -> new long[2 * SPECIES.length()]);
+
+	public void rank(long[] masks, int[] ranks, int from, int to) {
+		int lanes = SPECIES.length();
+		long[] stored = LANES.get();
+		int h = from;
+		for(; h <= to - lanes; h += lanes) {
+			LongVector mask = LongVector.fromArray(SPECIES, masks, h);
+			LongVector a = mask.and(RANK_MASK);
+			LongVector b = mask.lanewise(VectorOperators.LSHR, R).and(RANK_MASK);
+			LongVector c = mask.lanewise(VectorOperators.LSHR, 2 * R).and(RANK_MASK);
+			LongVector d = mask.lanewise(VectorOperators.LSHR, 3 * R).and(RANK_MASK);
+			// Rank histogram with bit sliced adders
+			LongVector ab = a.lanewise(VectorOperators.XOR, b);
+			LongVector cd = c.lanewise(VectorOperators.XOR, d);
+			LongVector carryAb = a.and(b);
+			LongVector carryCd = c.and(d);
+			LongVector carry = ab.and(cd);
+			LongVector p0 = ab.lanewise(VectorOperators.XOR, cd);
+			LongVector p1 = carryAb.lanewise(VectorOperators.XOR, carryCd)
+								   .lanewise(VectorOperators.XOR, carry);
+			LongVector p2 = carryAb.and(carryCd).or(
+				carry.and(carryAb.lanewise(VectorOperators.XOR, carryCd)));
+			p0.or(p1.lanewise(VectorOperators.LSHL, R))
+			  .or(p2.lanewise(VectorOperators.LSHL, 2 * R))
+			  .intoArray(stored, 0);
+			// Flush suit with a SWAR population count per 16 bit field
+			LongVector spread = a.or(b.lanewise(VectorOperators.LSHL, 16))
+								 .or(c.lanewise(VectorOperators.LSHL, 32))
+								 .or(d.lanewise(VectorOperators.LSHL, 48));
+			LongVector x = spread.sub(spread.lanewise(VectorOperators.LSHR, 1)
+											.and(0x5555555555555555L));
+			x = x.and(0x3333333333333333L).add(
+				x.lanewise(VectorOperators.LSHR, 2).and(0x3333333333333333L));
+			x = x.add(x.lanewise(VectorOperators.LSHR, 4)).and(0x0F0F0F0F0F0F0F0FL);
+			x = x.add(x.lanewise(VectorOperators.LSHR, 8)).and(0x1F * FIELDS);
+			LongVector flushSuit = x.add(11 * FIELDS)
+									.lanewise(VectorOperators.LSHR, 4).and(FIELDS);
+			LongVector f = spread.and(flushSuit.lanewise(VectorOperators.LSHL, R)
+										.sub(flushSuit));
+			LongVector flush = f.or(f.lanewise(VectorOperators.LSHR, 16))
+								.or(f.lanewise(VectorOperators.LSHR, 32))
+								.or(f.lanewise(VectorOperators.LSHR, 48))
+								.and(RANK_MASK);
+			// Straight and straight flush tops, written out: helper methods
+			// push the vector intrinsics past the inlining depth of C2
+			LongVector present = a.or(b).or(c).or(d);
+			LongVector low = present.lanewise(VectorOperators.LSHL, 1)
+				.or(present.lanewise(VectorOperators.LSHR, R - 1));
+			LongVector straight = low.and(low.lanewise(VectorOperators.LSHL, 1))
+				.and(low.lanewise(VectorOperators.LSHL, 2))
+				.and(low.lanewise(VectorOperators.LSHL, 3))
+				.and(low.lanewise(VectorOperators.LSHL, 4))
+				.lanewise(VectorOperators.LSHR, 1).and(RANK_MASK);
+			LongVector flushLow = flush.lanewise(VectorOperators.LSHL, 1)
+				.or(flush.lanewise(VectorOperators.LSHR, R - 1));
+			LongVector straightFlush = flushLow
+				.and(flushLow.lanewise(VectorOperators.LSHL, 1))
+				.and(flushLow.lanewise(VectorOperators.LSHL, 2))
+				.and(flushLow.lanewise(VectorOperators.LSHL, 3))
+				.and(flushLow.lanewise(VectorOperators.LSHL, 4))
+				.lanewise(VectorOperators.LSHR, 1).and(RANK_MASK);
+			flush.or(straightFlush.lanewise(VectorOperators.LSHL, R))
+				 .or(straight.lanewise(VectorOperators.LSHL, 2 * R))
+				 .intoArray(stored, lanes);
+			for(int i = 0; i < lanes; i++) {
+				ranks[h + i] = SimdEvaluator.finish(stored[i], stored[lanes + i]);
+			}
+		}
+		for(; h < to; h++) {
+			ranks[h] = SimdEvaluator.rank(masks[h]);
+		}
+	}
+
+	public int lanes() {
+		return SPECIES.length();
+	}
+
+}
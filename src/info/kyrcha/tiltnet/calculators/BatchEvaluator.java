@@ -0,0 +1,292 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Ranks many hands at once from packed primitive arrays, for offline jobs
+ * that would otherwise build a {@link Hand} per hand. Three layouts are
+ * accepted:
+ * <ul>
+ * <li>packed: the card indices of hand h in cards[h * size] to
+ * cards[h * size + size - 1]</li>
+ * <li>columns (struct of arrays): card j of hand h in cards[j][h]</li>
+ * <li>masks: hand h as the card set masks[h], see {@link CardSet}</li>
+ * </ul>
+ * The loops are written per hand size with no object access and no
+ * branches besides the evaluator's, so the JIT can unroll them, and the
+ * evaluator tables stay in cache for the whole batch. The parallel
+ * variants split batches larger than {@link #THRESHOLD} hands on a
+ * fork/join pool.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class BatchEvaluator {
+
+	/** Hands below which a batch is not split further */
+	public final static int THRESHOLD = 1 << 14;
+
+	private BatchEvaluator() {
+	}
+
+	/**
+	 * Rank packed hands of five, six or seven cards
+	 *
+	 * @param cards card indices, size per hand
+	 * @param size number of cards per hand
+	 * @param ranks filled with the rank of each hand
+	 * @param from first hand
+	 * @param to hand after the last
+	 */
+	public static void rank(int[] cards, int size, int[] ranks, int from,
+							int to) {
+		if(to > ranks.length || (long) to * size > cards.length) {
+			throw new IllegalArgumentException("Batch of " + (to - from) +
+				" hands does not fit the arrays");
+		}
+		switch(size) {
+		case 5:
+			for(int h = from, i = from * 5; h < to; h++, i += 5) {
+				ranks[h] = HandEvaluator.rank(cards[i], cards[i + 1],
+					cards[i + 2], cards[i + 3], cards[i + 4]);
+			}
+			break;
+		case 6:
+			for(int h = from, i = from * 6; h < to; h++, i += 6) {
+				ranks[h] = HandEvaluator.rank(cards[i], cards[i + 1],
+					cards[i + 2], cards[i + 3], cards[i + 4], cards[i + 5]);
+			}
+			break;
+		case 7:
+			for(int h = from, i = from * 7; h < to; h++, i += 7) {
+				ranks[h] = HandEvaluator.rank(cards[i], cards[i + 1],
+					cards[i + 2], cards[i + 3], cards[i + 4], cards[i + 5],
+					cards[i + 6]);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Cannot rank hands of " + size +
+											   " cards");
+		}
+	}
+
+	/**
+	 * Rank all the packed hands
+	 *
+	 * @param cards card indices, size per hand
+	 * @param size number of cards per hand
+	 * @param ranks filled with the rank of each hand
+	 */
+	public static void rank(int[] cards, int size, int[] ranks) {
+		rank(cards, size, ranks, 0, ranks.length);
+	}
+
+	/**
+	 * Rank all the packed hands on a fork/join pool
+	 *
+	 * @param cards card indices, size per hand
+	 * @param size number of cards per hand
+	 * @param ranks filled with the rank of each hand
+	 * @param pool the pool
+	 */
+	public static void rank(int[] cards, int size, int[] ranks,
+							ForkJoinPool pool) {
+		pool.invoke(new Task((from, to) -> rank(cards, size, ranks, from, to),
+							 0, ranks.length));
+	}
+
+	/**
+	 * Rank hands stored by column: cards[j][h] is card j of hand h
+	 *
+	 * @param cards five, six or seven columns of card indices
+	 * @param ranks filled with the rank of each hand
+	 * @param from first hand
+	 * @param to hand after the last
+	 */
+	public static void rank(int[][] cards, int[] ranks, int from, int to) {
+		for(int j = 0; j < cards.length; j++) {
+			if(to > cards[j].length) {
+				throw new IllegalArgumentException("Batch of " + (to - from) +
+					" hands does not fit the arrays");
+			}
+		}
+		switch(cards.length) {
+		case 5: {
+			int[] c0 = cards[0], c1 = cards[1], c2 = cards[2], c3 = cards[3],
+				c4 = cards[4];
+			for(int h = from; h < to; h++) {
+				ranks[h] = HandEvaluator.rank(c0[h], c1[h], c2[h], c3[h], c4[h]);
+			}
+			break;
+		}
+		case 6: {
+			int[] c0 = cards[0], c1 = cards[1], c2 = cards[2], c3 = cards[3],
+				c4 = cards[4], c5 = cards[5];
+			for(int h = from; h < to; h++) {
+				ranks[h] = HandEvaluator.rank(c0[h], c1[h], c2[h], c3[h], c4[h],
+											  c5[h]);
+			}
+			break;
+		}
+		case 7: {
+			int[] c0 = cards[0], c1 = cards[1], c2 = cards[2], c3 = cards[3],
+				c4 = cards[4], c5 = cards[5], c6 = cards[6];
+			for(int h = from; h < to; h++) {
+				ranks[h] = HandEvaluator.rank(c0[h], c1[h], c2[h], c3[h], c4[h],
+											  c5[h], c6[h]);
+			}
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Cannot rank hands of " +
+											   cards.length + " cards");
+		}
+	}
+
+	/**
+	 * Rank all the hands stored by column
+	 *
+	 * @param cards five, six or seven columns of card indices
+	 * @param ranks filled with the rank of each hand
+	 */
+	public static void rank(int[][] cards, int[] ranks) {
+		rank(cards, ranks, 0, ranks.length);
+	}
+
+	/**
+	 * Rank all the hands stored by column on a fork/join pool
+	 *
+	 * @param cards five, six or seven columns of card indices
+	 * @param ranks filled with the rank of each hand
+	 * @param pool the pool
+	 */
+	public static void rank(int[][] cards, int[] ranks, ForkJoinPool pool) {
+		pool.invoke(new Task((from, to) -> rank(cards, ranks, from, to), 0,
+							 ranks.length));
+	}
+
+	/**
+	 * Rank hands given as card sets of up to seven cards
+	 *
+	 * @param masks the hands, see {@link CardSet}
+	 * @param ranks filled with the rank of each hand
+	 * @param from first hand
+	 * @param to hand after the last
+	 */
+	public static void rank(long[] masks, int[] ranks, int from, int to) {
+		for(int h = from; h < to; h++) {
+			long mask = masks[h];
+			ranks[h] = HandEvaluator.rank(HandEvaluator.rankKey(mask), mask);
+		}
+	}
+
+	/**
+	 * Rank all the hands given as card sets
+	 *
+	 * @param masks the hands, see {@link CardSet}
+	 * @param ranks filled with the rank of each hand
+	 */
+	public static void rank(long[] masks, int[] ranks) {
+		rank(masks, ranks, 0, ranks.length);
+	}
+
+	/**
+	 * Rank all the hands given as card sets on a fork/join pool
+	 *
+	 * @param masks the hands, see {@link CardSet}
+	 * @param ranks filled with the rank of each hand
+	 * @param pool the pool
+	 */
+	public static void rank(long[] masks, int[] ranks, ForkJoinPool pool) {
+		pool.invoke(new Task((from, to) -> rank(masks, ranks, from, to), 0,
+							 ranks.length));
+	}
+
+	/**
+	 * Ranks the hands of a slice of a batch
+	 */
+	private interface Slice {
+		void rank(int from, int to);
+	}
+
+	/**
+	 * Splits a batch in halves down to {@link #THRESHOLD} hands
+	 */
+	private final static class Task extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Slice slice;
+
+		private final int from;
+
+		private final int to;
+
+		Task(Slice slice, int from, int to) {
+			this.slice = slice;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= THRESHOLD) {
+				slice.rank(from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Task(slice, from, middle), new Task(slice, middle, to));
+		}
+
+	}
+
+	public static void main(String[] args) {
+		int hands = 1 << 22;
+		int[] packed = new int[hands * Hand.MAX_CARDS];
+		int[][] columns = new int[Hand.MAX_CARDS][hands];
+		long[] masks = new long[hands];
+		SplittableRandom random = new SplittableRandom(1);
+		int[] deck = new int[Card.NUM_CARDS];
+		for(int i = 0; i < deck.length; i++) deck[i] = i;
+		for(int h = 0; h < hands; h++) {
+			for(int j = 0; j < Hand.MAX_CARDS; j++) {
+				int k = j + random.nextInt(deck.length - j);
+				int t = deck[j];
+				deck[j] = deck[k];
+				deck[k] = t;
+				packed[h * Hand.MAX_CARDS + j] = deck[j];
+				columns[j][h] = deck[j];
+				masks[h] |= CardSet.of(deck[j]);
+			}
+		}
+		int[] ranks = new int[hands];
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		for(int run = 0; run < 3; run++) {
+			long start = System.nanoTime();
+			rank(packed, Hand.MAX_CARDS, ranks);
+			long packedTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			rank(columns, ranks);
+			long columnTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			rank(masks, ranks);
+			long maskTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			rank(packed, Hand.MAX_CARDS, ranks, pool);
+			long parallelTime = System.nanoTime() - start;
+			System.out.printf("7 card hands/s: packed %.0f, columns %.0f, " +
+				"masks %.0f, packed on %d threads %.0f%n",
+				hands * 1e9 / packedTime, hands * 1e9 / columnTime,
+				hands * 1e9 / maskTime, pool.getParallelism(),
+				hands * 1e9 / parallelTime);
+		}
+		Hand hand = new Hand(CardSet.toString(masks[0]));
+		System.out.println("Rank " + hand + " " + ranks[0] + " (reference " +
+						   Hand.rankHand(hand) + ")");
+	}
+
+}
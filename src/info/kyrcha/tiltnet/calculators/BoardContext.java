@@ -0,0 +1,120 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+/**
+ * The ranks of every two card combination on a given board, so that many
+ * hands can be compared on the same board with table reads. A context is
+ * immutable once built, so it can be shared between threads and tables;
+ * see {@link BoardContextCache}.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class BoardContext {
+
+	private final long boardCards;
+
+	/** Rank of board plus two cards, by 52 * card + card, 0 if blocked */
+	private final int[] ranks;
+
+	private BoardContext(long boardCards) {
+		this.boardCards = boardCards;
+		int boardKey = HandEvaluator.rankKey(boardCards);
+		this.ranks = new int[Card.NUM_CARDS * Card.NUM_CARDS];
+		long deck = CardSet.FULL & ~boardCards;
+		for(long s1 = deck; s1 != 0; s1 = CardSet.removeFirst(s1)) {
+			int c1 = CardSet.first(s1);
+			int key = boardKey + HandEvaluator.rankKey(c1);
+			long mask = boardCards | CardSet.of(c1);
+			for(long s2 = CardSet.removeFirst(s1); s2 != 0;
+					s2 = CardSet.removeFirst(s2)) {
+				int c2 = CardSet.first(s2);
+				int rank = HandEvaluator.rank(key + HandEvaluator.rankKey(c2),
+											  mask | CardSet.of(c2));
+				ranks[c1 * Card.NUM_CARDS + c2] = rank;
+				ranks[c2 * Card.NUM_CARDS + c1] = rank;
+			}
+		}
+	}
+
+	/**
+	 * Builds the context of a board
+	 *
+	 * @param boardCards three to five community cards, see {@link CardSet}
+	 * @return the context
+	 */
+	public static BoardContext of(long boardCards) {
+		int size = CardSet.size(boardCards);
+		if(size < 3 || size > 5) {
+			throw new IllegalArgumentException("Not a flop, turn or river: " +
+				CardSet.toString(boardCards));
+		}
+		return new BoardContext(boardCards);
+	}
+
+	/**
+	 * The board of the context
+	 * @return the community cards, see {@link CardSet}
+	 */
+	public long getBoardCards() {
+		return boardCards;
+	}
+
+	/**
+	 * Rank of the board plus two cards
+	 *
+	 * @param card1 index of a card not on the board
+	 * @param card2 index of another card not on the board
+	 * @return the rank, or 0 if a card is on the board
+	 */
+	public int rank(int card1, int card2) {
+		return ranks[card1 * Card.NUM_CARDS + card2];
+	}
+
+	/**
+	 * Hand strength on this board, see {@link Hand#handStrength(long, long)},
+	 * counted with table reads only
+	 *
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @return hand strength in [0,1]
+	 */
+	public double handStrength(long holeCards) {
+		int rank = ranks[CardSet.first(holeCards) * Card.NUM_CARDS +
+						 CardSet.first(CardSet.removeFirst(holeCards))];
+		int ahead = 0;
+		int tied = 0;
+		int behind = 0;
+		long deck = CardSet.FULL & ~(holeCards | boardCards);
+		for(long s1 = deck; s1 != 0; s1 = CardSet.removeFirst(s1)) {
+			int row = CardSet.first(s1) * Card.NUM_CARDS;
+			for(long s2 = CardSet.removeFirst(s1); s2 != 0;
+					s2 = CardSet.removeFirst(s2)) {
+				int oppRank = ranks[row + CardSet.first(s2)];
+				if(rank > oppRank) ahead++;
+				else if(rank == oppRank) tied++;
+				else behind++;
+			}
+		}
+		return (ahead + (tied / 2.0)) / (ahead + tied + behind);
+	}
+
+	/**
+	 * The ranks as a 52x52 matrix, as returned by
+	 * {@link Hand#updateBoardRanks(String)}
+	 * @return a new matrix
+	 */
+	public int[][] toMatrix() {
+		int[][] matrix = new int[Card.NUM_CARDS][Card.NUM_CARDS];
+		for(int i = 0; i < Card.NUM_CARDS; i++) {
+			System.arraycopy(ranks, i * Card.NUM_CARDS, matrix[i], 0,
+							 Card.NUM_CARDS);
+		}
+		return matrix;
+	}
+
+	public String toString() {
+		return CardSet.toString(boardCards);
+	}
+
+}
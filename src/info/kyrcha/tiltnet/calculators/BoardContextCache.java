@@ -0,0 +1,192 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of {@link BoardContext}s keyed by board, shared by all the
+ * tables of a JVM.
+ *
+ * Lookups do not lock: the contexts are kept in a
+ * {@link ConcurrentHashMap} and a hit only stamps its entry with the time
+ * of the access. A missing context is built outside the map, and when an
+ * insertion takes the cache over its capacity the entries are scanned and
+ * the least recently used one is evicted. Since concurrent hits and
+ * evictions are not ordered with each other, the eviction is least
+ * recently used only approximately. Two threads missing the same board at
+ * once may both build it, in which case the first one inserted is kept.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public class BoardContextCache {
+
+	/**
+	 * A cached context and the time it was last used
+	 */
+	private final static class Entry {
+
+		final BoardContext context;
+
+		volatile long lastUsed;
+
+		Entry(BoardContext context) {
+			this.context = context;
+			this.lastUsed = System.nanoTime();
+		}
+
+	}
+
+	private final int capacity;
+
+	private final ConcurrentHashMap<Long, Entry> contexts;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates a cache
+	 * @param capacity maximum number of boards kept
+	 */
+	public BoardContextCache(final int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("Bad capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		this.contexts = new ConcurrentHashMap<Long, Entry>(2 * capacity);
+	}
+
+	/**
+	 * The context of a board, built if it is not cached
+	 *
+	 * @param boardCards three to five community cards, see {@link CardSet}
+	 * @return the context
+	 */
+	public BoardContext get(long boardCards) {
+		Entry entry = contexts.get(boardCards);
+		if(entry != null) {
+			hits.increment();
+			entry.lastUsed = System.nanoTime();
+			return entry.context;
+		}
+		misses.increment();
+		Entry built = new Entry(BoardContext.of(boardCards));
+		Entry other = contexts.putIfAbsent(boardCards, built);
+		if(other != null) return other.context;
+		while(contexts.size() > capacity) {
+			evict();
+		}
+		return built.context;
+	}
+
+	/**
+	 * Removes the least recently used entry
+	 */
+	private void evict() {
+		Map.Entry<Long, Entry> eldest = null;
+		long oldest = Long.MAX_VALUE;
+		for(Map.Entry<Long, Entry> e : contexts.entrySet()) {
+			long lastUsed = e.getValue().lastUsed;
+			if(eldest == null || lastUsed - oldest < 0) {
+				eldest = e;
+				oldest = lastUsed;
+			}
+		}
+		if(eldest != null) {
+			contexts.remove(eldest.getKey(), eldest.getValue());
+		}
+	}
+
+	/**
+	 * Number of boards answered from the cache
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of boards that had to be built
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Maximum number of boards kept
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Number of boards currently kept
+	 * @return the size
+	 */
+	public int size() {
+		return contexts.size();
+	}
+
+	/**
+	 * Removes all the boards
+	 */
+	public void clear() {
+		contexts.clear();
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		BoardContextCache cache = new BoardContextCache(256);
+		long hole = CardSet.parse("7h9h");
+		long flop = CardSet.parse("8h6c4h");
+		long start = System.nanoTime();
+		BoardContext context = cache.get(flop);
+		long end = System.nanoTime();
+		System.out.println("Flop " + context + " built in " +
+						   (end - start) / 1000 + " us");
+		start = System.nanoTime();
+		double hs = cache.get(flop).handStrength(hole);
+		end = System.nanoTime();
+		System.out.println("Hand Strength of 7h9h-8h6c4h : " + hs + " (" +
+						   (end - start) / 1000 + " us, reference " +
+						   Hand.handStrength(hole, flop) + ")");
+		long turn = flop | CardSet.parse("Kd");
+		context = cache.get(turn);
+		System.out.println("Turn " + context + ", Hand Strength " +
+						   context.handStrength(hole) + " (reference " +
+						   Hand.handStrength(hole, turn) + ")");
+		// Many threads on a few hot boards and a stream of cold ones
+		long[] hot = new long[16];
+		Deck deck = new Deck(new java.util.SplittableRandom(1));
+		for(int i = 0; i < hot.length; i++) {
+			hot[i] = deck.deal(3);
+		}
+		Thread[] threads = new Thread[8];
+		for(int t = 0; t < threads.length; t++) {
+			int seed = t;
+			threads[t] = new Thread(() -> {
+				Deck cold = new Deck(new java.util.SplittableRandom(seed));
+				for(int i = 0; i < 20000; i++) {
+					cache.get(i % 10 == 0 ? cold.deal(3) : hot[i % hot.length]);
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		int kept = 0;
+		for(long board : hot) {
+			if(cache.contexts.containsKey(board)) kept++;
+		}
+		System.out.println("Size " + cache.size() + ", hot boards kept " +
+						   kept + "/" + hot.length + ", Hits " +
+						   cache.getHits() + " Misses " + cache.getMisses());
+	}
+
+}
@@ -0,0 +1,401 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Hand potential of every hole cards on one board, from a single
+ * enumeration of the runouts. Calling
+ * {@link Hand#parallelHandPotential(long, long, int, ForkJoinPool)} for
+ * each of the 1,176 hands of a flop re-ranks the same opponent hands on the
+ * same runouts for every hero; here every two card completion is ranked
+ * once on the current board and once per runout, and the transition counts
+ * <code>hp[now][showdown]</code> of all the heroes are filled together.
+ *
+ * For a runout, the completions left are swept in increasing order of
+ * their rank at the showdown, while a Fenwick tree indexed by their rank
+ * now counts the ones already swept. Before and after adding a group of
+ * equal showdown rank, two prefix queries at the hero's rank now tell how
+ * many completions are below, tied with and above the hero now among those
+ * below and tied at the showdown, i.e. all nine cells at once. Opponents
+ * cannot hold the hero's cards, so the completions holding either hero
+ * card, the hero's own included, are then compared one by one and taken
+ * out, which makes card removal exact. The counts, and so the potentials,
+ * are the same as those of {@link Hand#handPotential(long, long, int)}.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class BoardPotential {
+
+	/** Cells of a transition matrix */
+	private final static int CELLS = Hand.NUM_REL_RANKS * Hand.NUM_REL_RANKS;
+
+	private final static int CARD_BITS = 6;
+
+	private final static int CARD_MASK = (1 << CARD_BITS) - 1;
+
+	/** Sort keys hold the showdown rank above the two cards */
+	private final static int RANK_SHIFT = 2 * CARD_BITS;
+
+	private final long boardCards;
+
+	private final int ahead;
+
+	/** Transition counts by combination, hp[now][showdown] in a row */
+	private final int[] counts;
+
+	/**
+	 * Accumulates the counts of a share of the runouts
+	 */
+	private final static class Sweep {
+
+		final int[] counts = new int[Range.NUM_COMBOS * CELLS];
+
+		/** Showdown rank of each completion, by 52 * card + card */
+		final int[] finalRanks = new int[Card.NUM_CARDS * Card.NUM_CARDS];
+
+		final long[] keys;
+
+		/** Fenwick tree over the positions of the ranks now */
+		final int[] tree;
+
+		/** Prefix counts below and up to the hero's rank now, by key */
+		final int[] belowBefore;
+
+		final int[] upToBefore;
+
+		final int[] belowAfter;
+
+		final int[] upToAfter;
+
+		/** Number of completions swept before the group of each key */
+		final int[] sweptBefore;
+
+		final int[] sweptAfter;
+
+		Sweep(int completions, int positions) {
+			keys = new long[completions];
+			tree = new int[positions + 1];
+			belowBefore = new int[completions];
+			upToBefore = new int[completions];
+			belowAfter = new int[completions];
+			upToAfter = new int[completions];
+			sweptBefore = new int[completions];
+			sweptAfter = new int[completions];
+		}
+
+		void add(int position) {
+			for(int i = position + 1; i < tree.length; i += i & -i) {
+				tree[i]++;
+			}
+		}
+
+		/** Number of completions added at positions below a position */
+		int below(int position) {
+			int sum = 0;
+			for(int i = position; i > 0; i -= i & -i) {
+				sum += tree[i];
+			}
+			return sum;
+		}
+
+		void combine(Sweep other) {
+			for(int i = 0; i < counts.length; i++) {
+				counts[i] += other.counts[i];
+			}
+		}
+
+	}
+
+	private BoardPotential(long boardCards, int ahead, int[] counts) {
+		this.boardCards = boardCards;
+		this.ahead = ahead;
+		this.counts = counts;
+	}
+
+	/**
+	 * Enumerates the runouts of a board on the common pool
+	 *
+	 * @param boardCards three or four community cards, see {@link CardSet}
+	 * @param ahead number of cards to come, 1 or 2
+	 * @return the potentials of all the hands
+	 */
+	public static BoardPotential of(long boardCards, int ahead) {
+		int size = CardSet.size(boardCards);
+		if(size < 3 || ahead < 1 || ahead > 2 || size + ahead > 5) {
+			throw new IllegalArgumentException("Cannot deal " + ahead +
+				" more cards to " + CardSet.toString(boardCards));
+		}
+		long deck = CardSet.FULL & ~boardCards;
+		int[] cards = new int[CardSet.size(deck)];
+		CardSet.toArray(deck, cards, 0);
+		// Position of the rank now of every completion among the ranks now
+		BoardContext now = BoardContext.of(boardCards);
+		int[] nowRanks = new int[cards.length * (cards.length - 1) / 2];
+		int next = 0;
+		for(int i = 0; i < cards.length; i++) {
+			for(int j = i + 1; j < cards.length; j++) {
+				nowRanks[next++] = now.rank(cards[i], cards[j]);
+			}
+		}
+		int[] distinct = Arrays.stream(nowRanks).sorted().distinct()
+							   .toArray();
+		int[] positions = new int[Card.NUM_CARDS * Card.NUM_CARDS];
+		for(int i = 0; i < cards.length; i++) {
+			for(int j = i + 1; j < cards.length; j++) {
+				int position = Arrays.binarySearch(distinct,
+					now.rank(cards[i], cards[j]));
+				positions[cards[i] * Card.NUM_CARDS + cards[j]] = position;
+				positions[cards[j] * Card.NUM_CARDS + cards[i]] = position;
+			}
+		}
+		CardEnumerator enumerator = new CardEnumerator(deck);
+		long[] runouts = enumerator.subsets(ahead);
+		int[] runoutKeys = enumerator.keys(ahead);
+		int boardKey = HandEvaluator.rankKey(boardCards);
+		int completions = (cards.length - ahead) *
+						  (cards.length - ahead - 1) / 2;
+		Sweep total = IntStream.range(0, runouts.length).parallel().collect(
+			() -> new Sweep(completions, distinct.length),
+			(sweep, r) -> sweep(sweep, cards, positions,
+				boardKey + runoutKeys[r], boardCards | runouts[r]),
+			Sweep::combine);
+		return new BoardPotential(boardCards, ahead, total.counts);
+	}
+
+	/**
+	 * Adds the transitions of all the heroes on one runout
+	 */
+	private static void sweep(Sweep sweep, int[] cards, int[] positions,
+							  int finalKey, long finalBoard) {
+		int[] finalRanks = sweep.finalRanks;
+		long[] keys = sweep.keys;
+		int n = 0;
+		for(int i = 0; i < cards.length; i++) {
+			int c1 = cards[i];
+			if(CardSet.contains(finalBoard, c1)) continue;
+			int key = finalKey + HandEvaluator.rankKey(c1);
+			long mask = finalBoard | CardSet.of(c1);
+			for(int j = i + 1; j < cards.length; j++) {
+				int c2 = cards[j];
+				if(CardSet.contains(finalBoard, c2)) continue;
+				int rank = HandEvaluator.rank(
+					key + HandEvaluator.rankKey(c2), mask | CardSet.of(c2));
+				finalRanks[c1 * Card.NUM_CARDS + c2] = rank;
+				finalRanks[c2 * Card.NUM_CARDS + c1] = rank;
+				keys[n++] = ((long) rank << RANK_SHIFT) |
+							(c1 << CARD_BITS) | c2;
+			}
+		}
+		Arrays.sort(keys, 0, n);
+		Arrays.fill(sweep.tree, 0);
+		// Prefix counts before and after adding each group of equal rank
+		for(int from = 0; from < n; ) {
+			long rank = keys[from] >>> RANK_SHIFT;
+			int to = from;
+			while(to < n && (keys[to] >>> RANK_SHIFT) == rank) to++;
+			for(int k = from; k < to; k++) {
+				int position = position(positions, keys[k]);
+				sweep.belowBefore[k] = sweep.below(position);
+				sweep.upToBefore[k] = sweep.below(position + 1);
+				sweep.sweptBefore[k] = from;
+			}
+			for(int k = from; k < to; k++) {
+				sweep.add(position(positions, keys[k]));
+			}
+			for(int k = from; k < to; k++) {
+				int position = position(positions, keys[k]);
+				sweep.belowAfter[k] = sweep.below(position);
+				sweep.upToAfter[k] = sweep.below(position + 1);
+				sweep.sweptAfter[k] = to;
+			}
+			from = to;
+		}
+		int[] cells = new int[CELLS];
+		for(int k = 0; k < n; k++) {
+			int c1 = (int) (keys[k] >>> CARD_BITS) & CARD_MASK;
+			int c2 = (int) keys[k] & CARD_MASK;
+			int position = position(positions, keys[k]);
+			int all = sweep.below(position + 1);
+			// Cells by the opponent's rank now and at the showdown, relative
+			// to the hero's: below now and at the showdown, then tied, above
+			int belowNow = sweep.below(position);
+			int b = sweep.belowBefore[k];
+			int t = sweep.upToBefore[k] - b;
+			int a = sweep.sweptBefore[k] - sweep.upToBefore[k];
+			cells[cell(Hand.BETTER, Hand.BETTER)] = b;
+			cells[cell(Hand.TIED, Hand.BETTER)] = t;
+			cells[cell(Hand.WORSE, Hand.BETTER)] = a;
+			int b2 = sweep.belowAfter[k];
+			int t2 = sweep.upToAfter[k] - b2;
+			int a2 = sweep.sweptAfter[k] - sweep.upToAfter[k];
+			cells[cell(Hand.BETTER, Hand.TIED)] = b2 - b;
+			cells[cell(Hand.TIED, Hand.TIED)] = t2 - t;
+			cells[cell(Hand.WORSE, Hand.TIED)] = a2 - a;
+			cells[cell(Hand.BETTER, Hand.WORSE)] = belowNow - b2;
+			cells[cell(Hand.TIED, Hand.WORSE)] = all - belowNow - t2;
+			cells[cell(Hand.WORSE, Hand.WORSE)] = n - all - a2;
+			// Take out the completions sharing a card with the hero
+			int myNow = positions[c1 * Card.NUM_CARDS + c2];
+			int myFinal = finalRanks[c1 * Card.NUM_CARDS + c2];
+			for(int i = 0; i < cards.length; i++) {
+				int x = cards[i];
+				if(CardSet.contains(finalBoard, x)) continue;
+				if(x != c1) {
+					cells[compare(myNow, myFinal, positions, finalRanks,
+								  c1, x)]--;
+				}
+				if(x != c2 && x != c1) {
+					cells[compare(myNow, myFinal, positions, finalRanks,
+								  c2, x)]--;
+				}
+			}
+			int offset = Range.comboIndex(c1, c2) * CELLS;
+			for(int i = 0; i < CELLS; i++) {
+				sweep.counts[offset + i] += cells[i];
+			}
+		}
+	}
+
+	private static int position(int[] positions, long key) {
+		return positions[(int) (key >>> CARD_BITS & CARD_MASK) *
+						 Card.NUM_CARDS + (int) (key & CARD_MASK)];
+	}
+
+	private static int cell(int now, int showdown) {
+		return now * Hand.NUM_REL_RANKS + showdown;
+	}
+
+	/** The cell of the hero against the completion of two cards */
+	private static int compare(int myNow, int myFinal, int[] positions,
+							   int[] finalRanks, int c1, int c2) {
+		int oppNow = positions[c1 * Card.NUM_CARDS + c2];
+		int oppFinal = finalRanks[c1 * Card.NUM_CARDS + c2];
+		// WORSE, TIED and BETTER are 0, 1 and 2: no branches to mispredict
+		return cell(Hand.TIED + Integer.signum(myNow - oppNow),
+					Hand.TIED + Integer.signum(myFinal - oppFinal));
+	}
+
+	/**
+	 * The board of the potentials
+	 * @return the community cards, see {@link CardSet}
+	 */
+	public long getBoardCards() {
+		return boardCards;
+	}
+
+	/**
+	 * Number of cards to come
+	 * @return 1 or 2
+	 */
+	public int getAhead() {
+		return ahead;
+	}
+
+	/**
+	 * Transition counts of a hand against every opponent and runout
+	 *
+	 * @param holeCards two cards not on the board, see {@link CardSet}
+	 * @param hp filled with the counts by relative rank now and at the
+	 * showdown
+	 * @param hpTotal filled with the counts by relative rank now
+	 */
+	public void transitions(long holeCards, int[][] hp, int[] hpTotal) {
+		if(CardSet.size(holeCards) != 2 ||
+		   !CardSet.disjoint(holeCards, boardCards)) {
+			throw new IllegalArgumentException("Bad hole cards " +
+				CardSet.toString(holeCards) + " on " +
+				CardSet.toString(boardCards));
+		}
+		int offset = Range.comboIndex(CardSet.first(holeCards),
+			CardSet.first(CardSet.removeFirst(holeCards))) * CELLS;
+		for(int now = 0; now < Hand.NUM_REL_RANKS; now++) {
+			hpTotal[now] = 0;
+			for(int showdown = 0; showdown < Hand.NUM_REL_RANKS; showdown++) {
+				hp[now][showdown] = counts[offset + cell(now, showdown)];
+				hpTotal[now] += hp[now][showdown];
+			}
+		}
+	}
+
+	/**
+	 * Positive and negative potential of a hand, the same as
+	 * {@link Hand#handPotential(long, long, int)}
+	 *
+	 * @param holeCards two cards not on the board, see {@link CardSet}
+	 * @return the positive and negative potential
+	 */
+	public double[] handPotential(long holeCards) {
+		int[][] hp = new int[Hand.NUM_REL_RANKS][Hand.NUM_REL_RANKS];
+		int[] hpTotal = new int[Hand.NUM_REL_RANKS];
+		transitions(holeCards, hp, hpTotal);
+		return Hand.potentials(hp, hpTotal);
+	}
+
+	/**
+	 * Hand strength, potentials and effective hand strength of a hand, the
+	 * same as {@link Hand#effectiveHandStrength(long, long, int, ForkJoinPool)}
+	 *
+	 * @param holeCards two cards not on the board, see {@link CardSet}
+	 * @return the values indexed by HAND_STRENGTH, POSITIVE_POTENTIAL,
+	 * NEGATIVE_POTENTIAL and EFFECTIVE_STRENGTH
+	 */
+	public double[] effectiveHandStrength(long holeCards) {
+		int[][] hp = new int[Hand.NUM_REL_RANKS][Hand.NUM_REL_RANKS];
+		int[] hpTotal = new int[Hand.NUM_REL_RANKS];
+		transitions(holeCards, hp, hpTotal);
+		return Hand.strengths(hp, hpTotal);
+	}
+
+	public static void main(String[] args) {
+		long board = CardSet.parse("8h6c4h");
+		for(int ahead = 1; ahead <= 2; ahead++) {
+			long start = System.nanoTime();
+			BoardPotential potentials = of(board, ahead);
+			long middle = System.nanoTime();
+			// Check against the enumeration of each hand
+			int mismatches = 0;
+			int hands = 0;
+			for(int combo = 0; combo < Range.NUM_COMBOS; combo++) {
+				long hole = Range.cards(combo);
+				if(!CardSet.disjoint(hole, board)) continue;
+				hands++;
+				if(!Arrays.equals(potentials.handPotential(hole),
+								  Hand.parallelHandPotential(hole, board,
+									  ahead, ForkJoinPool.commonPool()))) {
+					mismatches++;
+				}
+			}
+			long end = System.nanoTime();
+			System.out.println(ahead + " to come: all hands in " +
+				(middle - start) / 1000000 + " ms, one call per hand in " +
+				(end - middle) / 1000000 + " ms, " + mismatches +
+				" mismatches out of " + hands);
+		}
+		System.out.println("Positive Potential of 7h9h-8h6c4h : " +
+			of(board, 2).handPotential(CardSet.parse("7h9h"))[Hand.POSITIVE]);
+		// A turn and a few random flops
+		Deck deck = new Deck(new SplittableRandom(11));
+		int mismatches = 0;
+		for(int b = 0; b < 4; b++) {
+			board = deck.deal(3 + b % 2);
+			BoardPotential potentials = of(board, 1);
+			for(int combo = 0; combo < Range.NUM_COMBOS; combo += 7) {
+				long hole = Range.cards(combo);
+				if(!CardSet.disjoint(hole, board)) continue;
+				if(!Arrays.equals(potentials.effectiveHandStrength(hole),
+								  Hand.effectiveHandStrength(hole, board, 1,
+									  ForkJoinPool.commonPool()))) {
+					mismatches++;
+				}
+			}
+		}
+		System.out.println("Mismatches on random boards: " + mismatches);
+	}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Bucket of every isomorphism class of hole and board cards of a street,
+ * as computed by {@link Bucketing}. The table is an open addressed hash
+ * keyed by the {@link HandIndexer} index, with linear probing and a load
+ * factor of at most one half, written once and memory mapped by
+ * {@link #load(Path)}, so a lookup reads a couple of slots of the file.
+ *
+ * File format (big endian): magic, version, number of board cards, number
+ * of buckets, number of slots (a power of two), four bytes of padding,
+ * then a long key per slot (-1 if empty) and a short bucket per slot.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public class BucketTable {
+
+	private final static int MAGIC = 0x424B5454;
+
+	private final static int VERSION = 1;
+
+	private final static int HEADER = 6 * 4;
+
+	private final static long EMPTY = -1L;
+
+	/** Largest number of slots that fits a single mapping */
+	private final static int MAX_SLOTS = 1 << 27;
+
+	private final ByteBuffer buffer;
+
+	private final int boardSize;
+
+	private final int numBuckets;
+
+	private final int mask;
+
+	private final int bucketOffset;
+
+	private BucketTable(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.boardSize = buffer.getInt(8);
+		this.numBuckets = buffer.getInt(12);
+		int slots = buffer.getInt(16);
+		this.mask = slots - 1;
+		this.bucketOffset = HEADER + 8 * slots;
+	}
+
+	/**
+	 * Write a table
+	 *
+	 * @param file the file to write
+	 * @param boardSize number of board cards of the street
+	 * @param numBuckets number of buckets
+	 * @param indices the class indices, see {@link HandIndexer}
+	 * @param buckets the bucket of each class
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(Path file, int boardSize, int numBuckets,
+							 long[] indices, int[] buckets) throws IOException {
+		if(numBuckets > Short.MAX_VALUE ||
+		   indices.length > MAX_SLOTS / 2) {
+			throw new IllegalArgumentException("Table too large: " +
+				indices.length + " classes, " + numBuckets + " buckets");
+		}
+		int slots = Integer.highestOneBit(Math.max(1, 2 * indices.length - 1)) << 1;
+		long[] keys = new long[slots];
+		short[] values = new short[slots];
+		Arrays.fill(keys, EMPTY);
+		for(int i = 0; i < indices.length; i++) {
+			int slot = slot(indices[i], slots - 1);
+			while(keys[slot] != EMPTY && keys[slot] != indices[i]) {
+				slot = (slot + 1) & (slots - 1);
+			}
+			keys[slot] = indices[i];
+			values[slot] = (short) buckets[i];
+		}
+		try(OutputStream out = Files.newOutputStream(file);
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeInt(boardSize);
+			data.writeInt(numBuckets);
+			data.writeInt(slots);
+			data.writeInt(0);
+			for(int i = 0; i < slots; i++) {
+				data.writeLong(keys[i]);
+			}
+			for(int i = 0; i < slots; i++) {
+				data.writeShort(values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Memory map a table file
+	 * @param file the file written by {@link #write(Path, int, int, long[], int[])}
+	 * @return the table
+	 * @throws IOException if the file cannot be read or is not a table
+	 */
+	public static BucketTable load(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if(channel.size() < HEADER || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Not a bucket table: " + file);
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+											channel.size());
+			int slots = buffer.getInt(16);
+			if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION ||
+			   slots <= 0 || Integer.bitCount(slots) != 1 ||
+			   buffer.limit() != HEADER + 10L * slots) {
+				throw new IOException("Not a bucket table: " + file);
+			}
+			return new BucketTable(buffer);
+		}
+	}
+
+	/**
+	 * Bucket of an isomorphism class
+	 * @param index the class index, see {@link HandIndexer}
+	 * @return the bucket or -1 if the class is not in the table
+	 */
+	public int bucket(long index) {
+		int slot = slot(index, mask);
+		while(true) {
+			long key = buffer.getLong(HEADER + 8 * slot);
+			if(key == index) return buffer.getShort(bucketOffset + 2 * slot);
+			if(key == EMPTY) return -1;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Bucket of hole and board cards
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards, see {@link CardSet}
+	 * @return the bucket or -1 if the class is not in the table
+	 */
+	public int bucket(long holeCards, long boardCards) {
+		return bucket(HandIndexer.index(holeCards, boardCards));
+	}
+
+	/**
+	 * Number of board cards of the street
+	 * @return 3, 4 or 5
+	 */
+	public int getBoardSize() {
+		return boardSize;
+	}
+
+	/**
+	 * Number of buckets
+	 * @return the number of buckets
+	 */
+	public int getNumBuckets() {
+		return numBuckets;
+	}
+
+	private static int slot(long index, int mask) {
+		long h = index * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+}
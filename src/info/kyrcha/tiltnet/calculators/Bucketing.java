@@ -0,0 +1,414 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Card abstraction by hand strength distribution. For every isomorphism
+ * class of hole and board cards of a street, the histogram of the hand
+ * strength on the river over all the runouts is computed, the histograms
+ * are clustered with {@link KMeans} and the bucket of every class is
+ * written to a {@link BucketTable}. Buckets are numbered by increasing
+ * expected hand strength.
+ *
+ * Histograms are computed board by board, in parallel over the canonical
+ * boards of the street. Every runout of a board is ranked once for all
+ * the hole cards: hole cards are sorted by rank and swept in increasing
+ * order keeping the number of weaker and tied hole cards in total and per
+ * card, so the river hand strength of each of them, with card removal, is
+ * found in constant time (see {@link PreflopTable}). A board costs one
+ * evaluation per hole card pair and runout, whatever the number of
+ * classes.
+ *
+ * Only the flop and the turn are enumerated. The river has about 123
+ * million classes, more than a {@link BucketTable} holds and more
+ * histograms than fit one array, so it would need sampling, which is not
+ * done here.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class Bucketing {
+
+	private Bucketing() {
+	}
+
+	/**
+	 * Histograms of the classes of a set of boards
+	 */
+	public final static class Histograms {
+
+		/** Number of bins of every histogram */
+		public final int bins;
+
+		/** Class index of every histogram, see {@link HandIndexer} */
+		public final long[] indices;
+
+		/** The histograms one after the other, each summing to 1 */
+		public final float[] values;
+
+		Histograms(int bins, long[] indices, float[] values) {
+			this.bins = bins;
+			this.indices = indices;
+			this.values = values;
+		}
+
+	}
+
+	/**
+	 * The canonical boards of a street, see
+	 * {@link HandIndexer#canonicalize(long)}
+	 *
+	 * @param boardSize number of board cards, 3 or 4
+	 * @return the boards, in increasing order
+	 */
+	public static long[] boards(int boardSize) {
+		if(boardSize == 5) {
+			throw new IllegalArgumentException("The river has about 123 " +
+				"million classes, too many to enumerate into a bucket table");
+		}
+		if(boardSize < 3 || boardSize > 4) {
+			throw new IllegalArgumentException("Not a flop or turn: " +
+											   boardSize);
+		}
+		return subsets(CardSet.FULL, boardSize).map(HandIndexer::canonicalize)
+			.sorted().distinct().toArray();
+	}
+
+	private static LongStream subsets(long cards, int size) {
+		if(size == 0) return LongStream.of(CardSet.EMPTY);
+		return LongStream.iterate(cards, s -> s != 0, CardSet::removeFirst)
+			.flatMap(s -> subsets(CardSet.removeFirst(s), size - 1)
+					 .map(rest -> rest | CardSet.of(CardSet.first(s))));
+	}
+
+	/**
+	 * Histograms of the river hand strength of every class with one of the
+	 * given boards
+	 *
+	 * @param boards canonical boards of the same street
+	 * @param bins number of bins of the histograms
+	 * @return the histograms, board by board
+	 */
+	public static Histograms histograms(long[] boards, int bins) {
+		// Check the size before the work: at most one class per hole cards,
+		// counted exactly only if that bound is too large
+		long total = 0;
+		for(long board : boards) {
+			long live = Card.NUM_CARDS - CardSet.size(board);
+			total += live * (live - 1) / 2;
+		}
+		if(total * bins > Integer.MAX_VALUE - 8) {
+			total = IntStream.range(0, boards.length).parallel()
+				.mapToLong(b -> classes(boards[b])).sum();
+			if(total * bins > Integer.MAX_VALUE - 8) {
+				throw new IllegalArgumentException("Too many histograms: " +
+					total + " classes of " + bins + " bins");
+			}
+		}
+		Histograms[] parts = IntStream.range(0, boards.length).parallel()
+			.mapToObj(b -> boardHistograms(boards[b], bins))
+			.toArray(Histograms[]::new);
+		total = 0;
+		for(Histograms part : parts) total += part.indices.length;
+		int n = (int) total;
+		long[] indices = new long[n];
+		float[] values = new float[n * bins];
+		int i = 0;
+		for(Histograms part : parts) {
+			System.arraycopy(part.indices, 0, indices, i, part.indices.length);
+			System.arraycopy(part.values, 0, values, i * bins,
+							 part.values.length);
+			i += part.indices.length;
+		}
+		return new Histograms(bins, indices, values);
+	}
+
+	/**
+	 * Histogram of the river hand strength of one hand, enumerating the
+	 * runouts and calling {@link Hand#handStrength(long, long)} on each
+	 *
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards so far, see {@link CardSet}
+	 * @param bins number of bins
+	 * @return the histogram, summing to 1
+	 */
+	public static float[] histogram(long holeCards, long boardCards,
+									int bins) {
+		long deck = CardSet.FULL & ~(holeCards | boardCards);
+		int toCome = 5 - CardSet.size(boardCards);
+		long[] runouts = subsets(deck, toCome).toArray();
+		float[] histogram = new float[bins];
+		for(long runout : runouts) {
+			double hs = Hand.handStrength(holeCards, boardCards | runout);
+			histogram[bin(hs, bins)] += 1f / runouts.length;
+		}
+		return histogram;
+	}
+
+	/**
+	 * Compute, cluster and write the buckets of every class of a street
+	 *
+	 * @param file the table to write
+	 * @param boardSize number of board cards, 3 or 4
+	 * @param bins number of bins of the histograms
+	 * @param buckets number of buckets
+	 * @param distance distance between histograms
+	 * @param iterations maximum number of k-means iterations
+	 * @param seed seed of the k-means initialization
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void generate(Path file, int boardSize, int bins,
+								int buckets, KMeans.Distance distance,
+								int iterations, long seed) throws IOException {
+		generate(file, boards(boardSize), bins, buckets, distance,
+				 iterations, seed);
+	}
+
+	/**
+	 * Compute, cluster and write the buckets of the classes of some boards
+	 * of a street
+	 *
+	 * @param file the table to write
+	 * @param boards canonical boards of the same street
+	 * @param bins number of bins of the histograms
+	 * @param buckets number of buckets
+	 * @param distance distance between histograms
+	 * @param iterations maximum number of k-means iterations
+	 * @param seed seed of the k-means initialization
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void generate(Path file, long[] boards, int bins,
+								int buckets, KMeans.Distance distance,
+								int iterations, long seed) throws IOException {
+		Histograms histograms = histograms(boards, bins);
+		KMeans means = KMeans.fit(histograms.values, bins, buckets, distance,
+								  iterations, seed);
+		// Number the clusters by increasing expected hand strength
+		Integer[] order = new Integer[buckets];
+		double[] expected = new double[buckets];
+		for(int c = 0; c < buckets; c++) {
+			order[c] = c;
+			float[] centroid = means.getCentroid(c);
+			for(int b = 0; b < bins; b++) {
+				expected[c] += centroid[b] * (b + 0.5) / bins;
+			}
+		}
+		Arrays.sort(order, (x, y) -> Double.compare(expected[x], expected[y]));
+		int[] label = new int[buckets];
+		for(int i = 0; i < buckets; i++) label[order[i]] = i;
+		int[] assignments = IntStream.range(0, histograms.indices.length)
+			.parallel().map(p -> label[means.nearest(histograms.values, p * bins)])
+			.toArray();
+		BucketTable.write(file, CardSet.size(boards[0]), buckets,
+						  histograms.indices, assignments);
+	}
+
+	/**
+	 * Number of classes of the hole cards with a board
+	 */
+	private static int classes(long board) {
+		long deck = CardSet.FULL & ~board;
+		long[] indices = new long[(int) CardEnumerator.binomial(
+			CardSet.size(deck), 2)];
+		int h = 0;
+		for(long s1 = deck; s1 != 0; s1 = CardSet.removeFirst(s1)) {
+			long first = CardSet.of(CardSet.first(s1));
+			for(long s2 = CardSet.removeFirst(s1); s2 != 0;
+					s2 = CardSet.removeFirst(s2)) {
+				indices[h++] = HandIndexer.index(
+					first | CardSet.of(CardSet.first(s2)), board);
+			}
+		}
+		Arrays.sort(indices);
+		int classes = 0;
+		for(int i = 0; i < indices.length; i++) {
+			if(i == 0 || indices[i] != indices[i - 1]) classes++;
+		}
+		return classes;
+	}
+
+	/**
+	 * Histograms of the classes of a board, ranking every runout once for
+	 * all the hole cards
+	 */
+	private static Histograms boardHistograms(long board, int bins) {
+		long deck = CardSet.FULL & ~board;
+		int[] cards = new int[CardSet.size(deck)];
+		CardSet.toArray(deck, cards, 0);
+		int numHoles = cards.length * (cards.length - 1) / 2;
+		int[] first = new int[numHoles];
+		int[] second = new int[numHoles];
+		// One hole card pair per class, the first one met
+		int[] slot = new int[numHoles];
+		Map<Long, Integer> slots = new HashMap<Long, Integer>();
+		long[] indices = new long[numHoles];
+		int h = 0;
+		for(int i = 0; i < cards.length; i++) {
+			for(int j = i + 1; j < cards.length; j++) {
+				first[h] = cards[i];
+				second[h] = cards[j];
+				long index = HandIndexer.index(CardSet.of(cards[i], cards[j]),
+											   board);
+				if(slots.containsKey(index)) {
+					slot[h] = -1;
+				} else {
+					slot[h] = slots.size();
+					indices[slots.size()] = index;
+					slots.put(index, slots.size());
+				}
+				h++;
+			}
+		}
+		int numClasses = slots.size();
+		float[] values = new float[numClasses * bins];
+		int toCome = 5 - CardSet.size(board);
+		Sweep sweep = new Sweep(first, second, slot, values, bins);
+		subsets(deck, toCome).forEach(runout -> sweep.board(board | runout));
+		// Every hole card pair meets the same number of runouts
+		long runouts = subsets(CardSet.FULL & ~CardSet.of(cards[0], cards[1]) &
+							   ~board, toCome).count();
+		for(int i = 0; i < values.length; i++) {
+			values[i] /= runouts;
+		}
+		return new Histograms(bins, Arrays.copyOf(indices, numClasses), values);
+	}
+
+	/**
+	 * Ranks and sweeps the hole cards on complete boards, reusing its
+	 * buffers from board to board
+	 */
+	private final static class Sweep {
+
+		private final int[] first;
+
+		private final int[] second;
+
+		private final int[] slot;
+
+		private final float[] values;
+
+		private final int bins;
+
+		private final long[] sorted;
+
+		private final int[] below = new int[Card.NUM_CARDS];
+
+		private final int[] equal = new int[Card.NUM_CARDS];
+
+		Sweep(int[] first, int[] second, int[] slot, float[] values, int bins) {
+			this.first = first;
+			this.second = second;
+			this.slot = slot;
+			this.values = values;
+			this.bins = bins;
+			this.sorted = new long[first.length];
+		}
+
+		void board(long board) {
+			int boardKey = HandEvaluator.rankKey(board);
+			int n = 0;
+			for(int h = 0; h < first.length; h++) {
+				long hole = CardSet.of(first[h]) | CardSet.of(second[h]);
+				if((hole & board) != 0) continue;
+				int rank = HandEvaluator.rank(boardKey +
+					HandEvaluator.rankKey(first[h]) +
+					HandEvaluator.rankKey(second[h]), board | hole);
+				sorted[n++] = ((long) rank << 32) | h;
+			}
+			Arrays.sort(sorted, 0, n);
+			Arrays.fill(below, 0);
+			int live = Card.NUM_CARDS - CardSet.size(board);
+			// Opponents left once my two cards are out
+			int opponents = (live - 2) * (live - 3) / 2;
+			int belowTotal = 0;
+			for(int start = 0; start < n; ) {
+				int end = start;
+				long rank = sorted[start] >>> 32;
+				while(end < n && (sorted[end] >>> 32) == rank) {
+					int h = (int) sorted[end];
+					equal[first[h]]++;
+					equal[second[h]]++;
+					end++;
+				}
+				int group = end - start;
+				for(int i = start; i < end; i++) {
+					int h = (int) sorted[i];
+					if(slot[h] < 0) continue;
+					int a = first[h];
+					int b = second[h];
+					int wins = belowTotal - below[a] - below[b];
+					int ties = group - equal[a] - equal[b] + 1;
+					double hs = (wins + ties / 2.0) / opponents;
+					values[slot[h] * bins + bin(hs, bins)]++;
+				}
+				for(int i = start; i < end; i++) {
+					int h = (int) sorted[i];
+					equal[first[h]]--;
+					equal[second[h]]--;
+					below[first[h]]++;
+					below[second[h]]++;
+				}
+				belowTotal += group;
+				start = end;
+			}
+		}
+
+	}
+
+	private static int bin(double hs, int bins) {
+		return Math.min(bins - 1, (int) (hs * bins));
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length >= 4) {
+			Path file = Paths.get(args[0]);
+			int boardSize = Integer.parseInt(args[1]);
+			int bins = Integer.parseInt(args[2]);
+			int buckets = Integer.parseInt(args[3]);
+			KMeans.Distance distance = args.length > 4 ?
+				KMeans.Distance.valueOf(args[4]) : KMeans.Distance.EMD;
+			long start = System.currentTimeMillis();
+			generate(file, boardSize, bins, buckets, distance, 100, 0L);
+			long end = System.currentTimeMillis();
+			System.out.println("Generated " + file + " in " +
+							   ((end - start) / 1000.0) + " sec");
+			return;
+		}
+		// Small example: the classes of 50 flops in 8 buckets
+		long[] flops = Arrays.copyOf(boards(3), 50);
+		long start = System.currentTimeMillis();
+		Histograms histograms = histograms(flops, 20);
+		long end = System.currentTimeMillis();
+		System.out.println(histograms.indices.length + " classes of " +
+			flops.length + " flops in " + (end - start) + " ms");
+		long index = histograms.indices[100];
+		System.out.println("Histogram of " +
+			CardSet.toString(HandIndexer.holeCards(index)) + "-" +
+			CardSet.toString(HandIndexer.boardCards(index)) + " : " +
+			Arrays.toString(Arrays.copyOfRange(histograms.values, 100 * 20,
+											   101 * 20)));
+		Path file = Files.createTempFile("buckets", ".dat");
+		generate(file, flops, 20, 8, KMeans.Distance.EMD, 100, 0L);
+		BucketTable table = BucketTable.load(file);
+		for(int i = 0; i < histograms.indices.length; i += 5000) {
+			long hole = HandIndexer.holeCards(histograms.indices[i]);
+			long board = HandIndexer.boardCards(histograms.indices[i]);
+			System.out.println(CardSet.toString(hole) + "-" +
+				CardSet.toString(board) + " : hand strength " +
+				Hand.handStrength(hole, board) + ", bucket " +
+				table.bucket(hole, board));
+		}
+		Files.delete(file);
+	}
+
+}
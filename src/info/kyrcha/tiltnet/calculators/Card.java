@@ -73,9 +73,16 @@ public class Card {
 	    gIndex = BAD_CARD;
     }   
    
+    /**
+     * Constructor.
+     * Creates a card from a string such as "Ah".
+     * @param s the rank and suit characters
+     */
     public Card(String s) {
 	if (s.length()==2)
 	    gIndex = chars2index(s.charAt(0),s.charAt(1));
+	else
+	    gIndex = BAD_CARD;
     }
    
     /**
@@ -89,42 +96,9 @@ public class Card {
     }
    
     private int chars2index(char rank, char suit) {
-	int r = -1;
-	switch (rank) {
-	    case '2': r = TWO; break;
-            case '3': r = THREE; break;
-            case '4': r = FOUR; break;
-            case '5': r = FIVE; break;
-            case '6': r = SIX; break;
-            case '7': r = SEVEN; break;
-            case '8': r = EIGHT; break;
-            case '9': r = NINE; break;
-            case 'T': r = TEN; break;
-            case 'J': r = JACK; break;
-            case 'Q': r = QUEEN; break;
-            case 'K': r = KING; break;
-            case 'A': r = ACE; break;
-            case 't': r = TEN; break;
-            case 'j': r = JACK; break;
-            case 'q': r = QUEEN; break;
-            case 'k': r = KING; break;
-            case 'a': r = ACE; break;
-        }
-	int s = -1;
-	switch (suit) {
-            case 'h': s = HEARTS; break;
-            case 'd': s = DIAMONDS; break;
-            case 's': s = SPADES; break;
-            case 'c': s = CLUBS; break;
-            case 'H': s = HEARTS; break;
-            case 'D': s = DIAMONDS; break;
-            case 'S': s = SPADES; break;
-            case 'C': s = CLUBS; break;
-	}
-	if (s != -1 && r != -1)
-	    return toIndex(r,s);
-	else return BAD_CARD;
-   }
+	int index = CardCodec.parseCard(rank, suit);
+	return (index >= 0) ? index : BAD_CARD;
+    }
    
     /**
      * Return the integer index for this card.
@@ -202,6 +176,8 @@ public class Card {
      * @return A string for this card
      */
     public String toString() {
+	if (gIndex >= 0 && gIndex < NUM_CARDS)
+	    return CardCodec.toString(gIndex);
 	String s = new String();
 	s += getRankChar(getRank());
 	switch (getSuit()) {
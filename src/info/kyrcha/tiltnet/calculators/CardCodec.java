@@ -0,0 +1,299 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.Arrays;
+
+/**
+ * Parsing and formatting of cards such as "Ah" or "2c" without creating
+ * objects. Input can be a {@link CharSequence}, a char array or an ASCII
+ * byte array, read from a range so that callers do not need substrings.
+ * Ranks and suits are looked up in tables indexed by character, and cards
+ * are formatted from precomputed characters and strings.
+ *
+ * Parsing never silently yields a bad card: methods return
+ * {@link #MALFORMED} for a range that is not a list of cards and
+ * {@link #DUPLICATE} for a card given twice. Valid results (card indices,
+ * card counts and card sets) are never negative.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class CardCodec {
+
+	/** The input is not a list of two character cards */
+	public final static int MALFORMED = -1;
+
+	/** A card appears more than once */
+	public final static int DUPLICATE = -2;
+
+	/** Rank of every ASCII character, -1 if none */
+	private final static byte[] RANKS = new byte[128];
+
+	/** Suit of every ASCII character, -1 if none */
+	private final static byte[] SUITS = new byte[128];
+
+	/** Rank and suit characters of every card */
+	private final static char[] CHARS = new char[2 * Card.NUM_CARDS];
+
+	/** Name of every card */
+	private final static String[] NAMES = new String[Card.NUM_CARDS];
+
+	static {
+		Arrays.fill(RANKS, (byte) -1);
+		Arrays.fill(SUITS, (byte) -1);
+		String ranks = "23456789TJQKA";
+		for(int r = 0; r < Card.NUM_RANKS; r++) {
+			RANKS[ranks.charAt(r)] = (byte) r;
+			RANKS[Character.toLowerCase(ranks.charAt(r))] = (byte) r;
+		}
+		String suits = "cdhs";
+		for(int s = 0; s < Card.NUM_SUITS; s++) {
+			SUITS[suits.charAt(s)] = (byte) s;
+			SUITS[Character.toUpperCase(suits.charAt(s))] = (byte) s;
+		}
+		for(int card = 0; card < Card.NUM_CARDS; card++) {
+			CHARS[2 * card] = ranks.charAt(Card.getRank(card));
+			CHARS[2 * card + 1] = suits.charAt(Card.getSuit(card));
+			NAMES[card] = new String(CHARS, 2 * card, 2);
+		}
+	}
+
+	private CardCodec() {
+	}
+
+	/**
+	 * Index of the card given by its rank and suit characters
+	 * @param rank the rank, e.g. 'A' or 'a'
+	 * @param suit the suit, e.g. 'h' or 'H'
+	 * @return the card index or {@link #MALFORMED}
+	 */
+	public static int parseCard(char rank, char suit) {
+		if(rank >= 128 || suit >= 128) return MALFORMED;
+		int r = RANKS[rank];
+		int s = SUITS[suit];
+		if(r < 0 || s < 0) return MALFORMED;
+		return s * Card.NUM_RANKS + r;
+	}
+
+	/**
+	 * Index of the card at a position of a sequence
+	 * @param cards the characters
+	 * @param offset position of the rank character
+	 * @return the card index or {@link #MALFORMED}
+	 */
+	public static int parseCard(CharSequence cards, int offset) {
+		if(offset < 0 || offset + 1 >= cards.length()) return MALFORMED;
+		return parseCard(cards.charAt(offset), cards.charAt(offset + 1));
+	}
+
+	/**
+	 * Index of the card at a position of an array
+	 * @param cards the characters
+	 * @param offset position of the rank character
+	 * @return the card index or {@link #MALFORMED}
+	 */
+	public static int parseCard(char[] cards, int offset) {
+		if(offset < 0 || offset + 1 >= cards.length) return MALFORMED;
+		return parseCard(cards[offset], cards[offset + 1]);
+	}
+
+	/**
+	 * Index of the card at a position of an ASCII array
+	 * @param cards the characters
+	 * @param offset position of the rank character
+	 * @return the card index or {@link #MALFORMED}
+	 */
+	public static int parseCard(byte[] cards, int offset) {
+		if(offset < 0 || offset + 1 >= cards.length) return MALFORMED;
+		return parseCard((char) (cards[offset] & 0xFF),
+						 (char) (cards[offset + 1] & 0xFF));
+	}
+
+	/**
+	 * The set of the cards in a sequence such as "AhKd"
+	 * @param cards the characters, two per card
+	 * @return the set, see {@link CardSet}, {@link #MALFORMED} or
+	 * {@link #DUPLICATE}
+	 */
+	public static long parse(CharSequence cards) {
+		return parse(cards, 0, cards.length());
+	}
+
+	/**
+	 * The set of the cards in a range of a sequence
+	 * @param cards the characters, two per card
+	 * @param from position of the first character
+	 * @param to position after the last character
+	 * @return the set, see {@link CardSet}, {@link #MALFORMED} or
+	 * {@link #DUPLICATE}
+	 */
+	public static long parse(CharSequence cards, int from, int to) {
+		if(((to - from) & 1) != 0 || from < 0 || to > cards.length()) {
+			return MALFORMED;
+		}
+		long set = CardSet.EMPTY;
+		for(int i = from; i < to; i += 2) {
+			int card = parseCard(cards.charAt(i), cards.charAt(i + 1));
+			if(card < 0) return MALFORMED;
+			if(CardSet.contains(set, card)) return DUPLICATE;
+			set |= CardSet.of(card);
+		}
+		return set;
+	}
+
+	/**
+	 * The set of the cards in a range of an array
+	 * @param cards the characters, two per card
+	 * @param from position of the first character
+	 * @param to position after the last character
+	 * @return the set, see {@link CardSet}, {@link #MALFORMED} or
+	 * {@link #DUPLICATE}
+	 */
+	public static long parse(char[] cards, int from, int to) {
+		if(((to - from) & 1) != 0 || from < 0 || to > cards.length) {
+			return MALFORMED;
+		}
+		long set = CardSet.EMPTY;
+		for(int i = from; i < to; i += 2) {
+			int card = parseCard(cards[i], cards[i + 1]);
+			if(card < 0) return MALFORMED;
+			if(CardSet.contains(set, card)) return DUPLICATE;
+			set |= CardSet.of(card);
+		}
+		return set;
+	}
+
+	/**
+	 * The set of the cards in a range of an ASCII array
+	 * @param cards the characters, two per card
+	 * @param from position of the first character
+	 * @param to position after the last character
+	 * @return the set, see {@link CardSet}, {@link #MALFORMED} or
+	 * {@link #DUPLICATE}
+	 */
+	public static long parse(byte[] cards, int from, int to) {
+		if(((to - from) & 1) != 0 || from < 0 || to > cards.length) {
+			return MALFORMED;
+		}
+		long set = CardSet.EMPTY;
+		for(int i = from; i < to; i += 2) {
+			int card = parseCard((char) (cards[i] & 0xFF),
+								 (char) (cards[i + 1] & 0xFF));
+			if(card < 0) return MALFORMED;
+			if(CardSet.contains(set, card)) return DUPLICATE;
+			set |= CardSet.of(card);
+		}
+		return set;
+	}
+
+	/**
+	 * Parse the cards in a range of a sequence into an array, in the order
+	 * they are given
+	 *
+	 * @param cards the characters, two per card
+	 * @param from position of the first character
+	 * @param to position after the last character
+	 * @param indices array receiving the card indices
+	 * @param offset position of the first card in the array
+	 * @return the number of cards, {@link #MALFORMED} or {@link #DUPLICATE}
+	 */
+	public static int parseCards(CharSequence cards, int from, int to,
+								 int[] indices, int offset) {
+		if(((to - from) & 1) != 0 || from < 0 || to > cards.length() ||
+		   offset + (to - from) / 2 > indices.length) {
+			return MALFORMED;
+		}
+		long set = CardSet.EMPTY;
+		int n = 0;
+		for(int i = from; i < to; i += 2) {
+			int card = parseCard(cards.charAt(i), cards.charAt(i + 1));
+			if(card < 0) return MALFORMED;
+			if(CardSet.contains(set, card)) return DUPLICATE;
+			set |= CardSet.of(card);
+			indices[offset + n++] = card;
+		}
+		return n;
+	}
+
+	/**
+	 * Name of a card, e.g. "Ah"
+	 * @param card the card index
+	 * @return the shared name
+	 */
+	public static String toString(int card) {
+		return NAMES[card];
+	}
+
+	/**
+	 * Names of the cards of an array, e.g. "AhKd"
+	 * @param cards card indices
+	 * @param offset position of the first card
+	 * @param length number of cards
+	 * @return the names
+	 */
+	public static String toString(int[] cards, int offset, int length) {
+		char[] chars = new char[2 * length];
+		for(int i = 0; i < length; i++) {
+			chars[2 * i] = CHARS[2 * cards[offset + i]];
+			chars[2 * i + 1] = CHARS[2 * cards[offset + i] + 1];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Names of the cards of a set in increasing index order, e.g. "KdAh"
+	 * @param set the cards, see {@link CardSet}
+	 * @return the names
+	 */
+	public static String toString(long set) {
+		char[] chars = new char[2 * CardSet.size(set)];
+		format(set, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * Write the names of the cards of a set into an array
+	 * @param set the cards, see {@link CardSet}
+	 * @param chars array receiving the names
+	 * @param offset position of the first character
+	 * @return the number of characters written
+	 */
+	public static int format(long set, char[] chars, int offset) {
+		int n = offset;
+		for(long s = set; s != 0; s &= s - 1) {
+			int card = Long.numberOfTrailingZeros(s);
+			chars[n++] = CHARS[2 * card];
+			chars[n++] = CHARS[2 * card + 1];
+		}
+		return n - offset;
+	}
+
+	/**
+	 * Write the names of the cards of a set into an ASCII array
+	 * @param set the cards, see {@link CardSet}
+	 * @param bytes array receiving the names
+	 * @param offset position of the first character
+	 * @return the number of characters written
+	 */
+	public static int format(long set, byte[] bytes, int offset) {
+		int n = offset;
+		for(long s = set; s != 0; s &= s - 1) {
+			int card = Long.numberOfTrailingZeros(s);
+			bytes[n++] = (byte) CHARS[2 * card];
+			bytes[n++] = (byte) CHARS[2 * card + 1];
+		}
+		return n - offset;
+	}
+
+	/**
+	 * Append the name of a card
+	 * @param card the card index
+	 * @param sb the builder
+	 * @return the builder
+	 */
+	public static StringBuilder append(int card, StringBuilder sb) {
+		return sb.append(CHARS[2 * card]).append(CHARS[2 * card + 1]);
+	}
+
+}
@@ -0,0 +1,243 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+/**
+ * Enumerates the k-card subsets of a set of live cards, e.g. the opponent
+ * hole cards or the runouts left in a deck, without walking dead slots or
+ * mutating a {@link Deck}. Subsets come in colexicographic order: by their
+ * highest card, then by the next highest and so on, which is the order of
+ * Gosper's hack on the positions of the cards.
+ *
+ * Every subset is handed to a {@link Visitor} together with the rank key
+ * (see {@link HandEvaluator#rankKey(int)}) and card mask of a partial hand
+ * extended by the subset. Both are carried incrementally, one card per
+ * level, so a subset costs one addition and one OR whatever k is. For an
+ * inner loop over the same subsets, {@link #subsets(int)} and
+ * {@link #keys(int)} give them once as arrays.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class CardEnumerator {
+
+	/** Binomial coefficients up to 52 choose 52 */
+	private final static long[][] BINOMIAL =
+		new long[Card.NUM_CARDS + 1][Card.NUM_CARDS + 1];
+
+	static {
+		for(int n = 0; n <= Card.NUM_CARDS; n++) {
+			BINOMIAL[n][0] = 1;
+			for(int k = 1; k <= n; k++) {
+				BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+			}
+		}
+	}
+
+	/**
+	 * Receives the subsets
+	 */
+	public interface Visitor {
+
+		/**
+		 * @param subset the cards of the subset, see {@link CardSet}
+		 * @param key rank key of the partial hand and the subset
+		 * @param mask card mask of the partial hand and the subset
+		 */
+		void visit(long subset, int key, long mask);
+
+	}
+
+	private long live;
+
+	/** Number of live cards */
+	private int size;
+
+	/** The live cards in increasing index order */
+	private final int[] cards = new int[Card.NUM_CARDS];
+
+	/** Rank key of each live card */
+	private final int[] cardKeys = new int[Card.NUM_CARDS];
+
+	/**
+	 * Creates an enumerator
+	 * @param live the cards to choose from, see {@link CardSet}
+	 */
+	public CardEnumerator(long live) {
+		reset(live);
+	}
+
+	/**
+	 * Choose from other cards, keeping the arrays of the enumerator, so
+	 * code enumerating hand after hand does not allocate
+	 * @param live the cards to choose from, see {@link CardSet}
+	 */
+	public void reset(long live) {
+		this.live = live;
+		this.size = CardSet.toArray(live, cards, 0);
+		for(int i = 0; i < size; i++) {
+			cardKeys[i] = HandEvaluator.rankKey(cards[i]);
+		}
+	}
+
+	/**
+	 * n choose k
+	 * @return the binomial coefficient, 0 if k is out of range
+	 */
+	public static long binomial(int n, int k) {
+		return (k < 0 || k > n) ? 0 : BINOMIAL[n][k];
+	}
+
+	/**
+	 * The subset of positions following a subset of the same size in
+	 * colexicographic order (Gosper's hack)
+	 *
+	 * @param positions k bits set
+	 * @return the next k bits, past bit 63 after the last subset of 63 bits
+	 */
+	public static long nextSubset(long positions) {
+		long lowest = positions & -positions;
+		long ripple = positions + lowest;
+		return ripple | (((positions ^ ripple) >>> 2) / lowest);
+	}
+
+	/**
+	 * The cards to choose from
+	 * @return the set
+	 */
+	public long getLive() {
+		return live;
+	}
+
+	/**
+	 * Number of cards to choose from
+	 * @return n
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of subsets of a size
+	 * @param k cards per subset
+	 * @return n choose k
+	 */
+	public long count(int k) {
+		return binomial(size, k);
+	}
+
+	/**
+	 * Visit every subset of k cards
+	 *
+	 * @param k cards per subset
+	 * @param key rank key of the partial hand
+	 * @param mask card mask of the partial hand
+	 * @param visitor receives the subsets
+	 */
+	public void forEach(int k, int key, long mask, Visitor visitor) {
+		if(k < 0 || k > size) {
+			throw new IllegalArgumentException("Cannot choose " + k +
+											   " out of " + size);
+		}
+		visit(k, size, CardSet.EMPTY, key, mask, visitor);
+	}
+
+	/**
+	 * Visit the subsets of k cards of the first n cards, the highest card
+	 * chosen first
+	 */
+	private void visit(int k, int n, long subset, int key, long mask,
+					   Visitor visitor) {
+		if(k == 0) {
+			visitor.visit(subset, key, mask);
+			return;
+		}
+		for(int i = k - 1; i < n; i++) {
+			long card = CardSet.of(cards[i]);
+			visit(k - 1, i, subset | card, key + cardKeys[i], mask | card,
+				  visitor);
+		}
+	}
+
+	/**
+	 * All the subsets of k cards
+	 * @param k cards per subset, up to 3
+	 * @return the subsets in colexicographic order, see {@link CardSet}
+	 */
+	public long[] subsets(int k) {
+		long[] subsets = new long[checkedCount(k)];
+		subsets(k, subsets, null);
+		return subsets;
+	}
+
+	/**
+	 * The rank keys of all the subsets of k cards
+	 * @param k cards per subset, up to 3
+	 * @return the keys, in the order of {@link #subsets(int)}
+	 */
+	public int[] keys(int k) {
+		int[] keys = new int[checkedCount(k)];
+		subsets(k, null, keys);
+		return keys;
+	}
+
+	/**
+	 * All the subsets of k cards and their rank keys, into arrays of the
+	 * caller
+	 *
+	 * @param k cards per subset, up to 3
+	 * @param subsets receives the subsets in colexicographic order, or null
+	 * @param keys receives the rank keys in the same order, or null
+	 * @return the number of subsets
+	 */
+	public int subsets(int k, long[] subsets, int[] keys) {
+		int count = checkedCount(k);
+		long positions = (1L << k) - 1;
+		for(int s = 0; s < count; s++) {
+			long subset = CardSet.EMPTY;
+			int key = 0;
+			for(long p = positions; p != 0; p &= p - 1) {
+				int i = Long.numberOfTrailingZeros(p);
+				subset |= CardSet.of(cards[i]);
+				key += cardKeys[i];
+			}
+			if(subsets != null) subsets[s] = subset;
+			if(keys != null) keys[s] = key;
+			// Gosper's hack divides by the lowest position, none when k = 0
+			if(s + 1 < count) positions = nextSubset(positions);
+		}
+		return count;
+	}
+
+	private int checkedCount(int k) {
+		if(k < 0 || k > 3 || k > size) {
+			throw new IllegalArgumentException("Cannot list the subsets of " +
+											   k + " out of " + size);
+		}
+		return (int) count(k);
+	}
+
+	public static void main(String[] args) {
+		long deck = CardSet.FULL & ~CardSet.parse("7h9h8h6c4h");
+		CardEnumerator enumerator = new CardEnumerator(deck);
+		System.out.println(enumerator.size() + " live cards, " +
+						   enumerator.count(2) + " pairs, " +
+						   enumerator.count(3) + " triples");
+		// The visitor and the arrays give the same subsets in the same order
+		long[] pairs = enumerator.subsets(2);
+		int[] keys = enumerator.keys(2);
+		int[] next = {0};
+		int[] mismatches = {0};
+		enumerator.forEach(2, 0, CardSet.EMPTY, (subset, key, mask) -> {
+			int s = next[0]++;
+			if(subset != pairs[s] || mask != subset || key != keys[s]) {
+				mismatches[0]++;
+			}
+		});
+		System.out.println("First pairs " + CardSet.toString(pairs[0]) + " " +
+						   CardSet.toString(pairs[1]) + " " +
+						   CardSet.toString(pairs[2]) + ", " + mismatches[0] +
+						   " mismatches");
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+/**
+ * Operations on sets of cards packed in a primitive <code>long</code>. Bit
+ * <code>i</code> is set when the card with index <code>i</code> (see
+ * {@link Card#toIndex(int, int)}) is in the set, so set operations such as
+ * removing the hole and board cards from a deck are a single AND-NOT and no
+ * objects are created.
+ *
+ * The members of a set are visited in increasing index order with
+ * <pre>
+ * for(long s = set; s != 0; s = CardSet.removeFirst(s)) {
+ *     int card = CardSet.first(s);
+ * }
+ * </pre>
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class CardSet {
+
+	/** The empty set */
+	public final static long EMPTY = 0L;
+
+	/** All the cards of a deck */
+	public final static long FULL = (1L << Card.NUM_CARDS) - 1;
+
+	private CardSet() {
+	}
+
+	/**
+	 * The set containing only the given card
+	 * @param card card index between 0 and 51
+	 * @return the set
+	 */
+	public static long of(int card) {
+		return 1L << card;
+	}
+
+	/**
+	 * The set containing the given cards
+	 * @param cards card indices between 0 and 51
+	 * @return the set
+	 */
+	public static long of(int... cards) {
+		long set = EMPTY;
+		for(int i = 0; i < cards.length; i++) {
+			set |= 1L << cards[i];
+		}
+		return set;
+	}
+
+	/**
+	 * The set of the cards in a String such as "AhKd", see
+	 * {@link CardCodec#parse(CharSequence)}
+	 * @param cards the cards, two characters each
+	 * @return the set, or {@link CardCodec#MALFORMED} (-1) if a card is
+	 * malformed and {@link CardCodec#DUPLICATE} (-2) if a card is repeated
+	 */
+	public static long parse(String cards) {
+		return CardCodec.parse(cards);
+	}
+
+	/**
+	 * Add a card to a set
+	 * @return the new set
+	 */
+	public static long add(long set, int card) {
+		return set | (1L << card);
+	}
+
+	/**
+	 * Remove a card from a set
+	 * @return the new set
+	 */
+	public static long remove(long set, int card) {
+		return set & ~(1L << card);
+	}
+
+	/**
+	 * Remove all the cards of another set from a set
+	 * @return the new set
+	 */
+	public static long removeAll(long set, long cards) {
+		return set & ~cards;
+	}
+
+	/**
+	 * Check if a card is in a set
+	 * @return true if the card is in the set
+	 */
+	public static boolean contains(long set, int card) {
+		return (set & (1L << card)) != 0;
+	}
+
+	/**
+	 * Check if two sets have no cards in common
+	 * @return true if the sets are disjoint
+	 */
+	public static boolean disjoint(long one, long two) {
+		return (one & two) == 0;
+	}
+
+	/**
+	 * Number of cards in a set
+	 * @return the number of cards
+	 */
+	public static int size(long set) {
+		return Long.bitCount(set);
+	}
+
+	/**
+	 * The card with the lowest index in a set
+	 * @return the card index or 64 if the set is empty
+	 */
+	public static int first(long set) {
+		return Long.numberOfTrailingZeros(set);
+	}
+
+	/**
+	 * Remove the card with the lowest index from a set
+	 * @return the new set
+	 */
+	public static long removeFirst(long set) {
+		return set & (set - 1);
+	}
+
+	/**
+	 * Write the cards of a set into an array in increasing index order
+	 *
+	 * @param set the set
+	 * @param cards array receiving the card indices
+	 * @param offset position of the first card in the array
+	 * @return the number of cards written
+	 */
+	public static int toArray(long set, int[] cards, int offset) {
+		int n = 0;
+		for(long s = set; s != 0; s &= s - 1) {
+			cards[offset + n++] = Long.numberOfTrailingZeros(s);
+		}
+		return n;
+	}
+
+	/**
+	 * Obtain a String representation of a set
+	 * @return the cards in increasing index order
+	 */
+	public static String toString(long set) {
+		return CardCodec.toString(set);
+	}
+
+}
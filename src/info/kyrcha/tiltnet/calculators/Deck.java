@@ -1,26 +1,77 @@
 package info.kyrcha.tiltnet.calculators;
 
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
 public class Deck {
 	
-	private Random random = new Random();
+	private final RandomGenerator random;
 	
 	private Card[] cards = new Card[Card.NUM_CARDS];
 	
+	/** Cards still in the deck, see {@link CardSet} */
+	private long live = CardSet.FULL;
+	
+	/** The live cards in the order left by the last deal */
+	private final int[] liveCards = new int[Card.NUM_CARDS];
+	
+	private int numLive;
+	
+	/** Whether liveCards must be rebuilt from live */
+	private boolean dirty = true;
+	
 	private int position;
 	
+	/**
+	 * Creates a deck with its own randomly seeded generator, so decks
+	 * created at the same time still deal different cards
+	 */
 	public Deck() {
+		this(new SplittableRandom());
+	}
+	
+	/**
+	 * Creates a deck dealing a reproducible sequence
+	 * @param seed the seed of the generator
+	 */
+	public Deck(long seed) {
+		this(new SplittableRandom(seed));
+	}
+	
+	/**
+	 * Creates a deck using the given generator, e.g. a
+	 * {@link SplittableRandom} or one of the xoshiro generators of
+	 * {@link java.util.random.RandomGeneratorFactory}. The generator should
+	 * not be shared with other threads.
+	 * 
+	 * @param random the generator
+	 */
+	public Deck(RandomGenerator random) {
+		this.random = random;
 		position = 0;
 		for(int i = 0; i < Card.NUM_CARDS; i++) {
 			cards[i] = new Card(i);
 		}
-		random.setSeed(System.currentTimeMillis());
-		random.nextInt();
-		random.nextInt();
-		random.nextInt();
-		random.nextInt();
-		random.nextInt();
+	}
+	
+	/**
+	 * A new full deck for another thread, with a generator split from (or
+	 * jumped ahead of) this deck's generator so that the streams do not
+	 * overlap and the whole run stays reproducible from one seed
+	 * 
+	 * @return the new deck
+	 * @throws UnsupportedOperationException if the generator can be neither
+	 * split nor jumped
+	 */
+	public Deck split() {
+		if(random instanceof RandomGenerator.SplittableGenerator) {
+			return new Deck(((RandomGenerator.SplittableGenerator) random).split());
+		}
+		if(random instanceof RandomGenerator.JumpableGenerator) {
+			return new Deck(((RandomGenerator.JumpableGenerator) random).copyAndJump());
+		}
+		throw new UnsupportedOperationException("Cannot split " + 
+												random.getClass().getName());
 	}
 	
    /**
@@ -37,24 +88,90 @@ public class Deck {
 		position = 0;
 	}
 	
+	/**
+	 * Deals random cards from the cards still in the deck with a partial
+	 * Fisher-Yates shuffle, so only k random numbers are drawn. The deck is
+	 * not changed: the next deal draws from the same cards again.
+	 * 
+	 * @param k number of cards
+	 * @param dealt filled with the indices of the cards from position 0
+	 * @return the number of cards dealt
+	 * @throws IllegalArgumentException if fewer than k cards are left
+	 */
+	public int deal(int k, int[] dealt) {
+		prepareDeal(k);
+		for(int i = 0; i < k; i++) {
+			int j = i + random.nextInt(numLive - i);
+			int t = liveCards[j];
+			liveCards[j] = liveCards[i];
+			liveCards[i] = t;
+			dealt[i] = t;
+		}
+		return k;
+	}
+	
+	/**
+	 * Deals random cards from the cards still in the deck, see
+	 * {@link #deal(int, int[])}
+	 * 
+	 * @param k number of cards
+	 * @return the cards dealt, see {@link CardSet}
+	 */
+	public long deal(int k) {
+		prepareDeal(k);
+		long dealt = CardSet.EMPTY;
+		for(int i = 0; i < k; i++) {
+			int j = i + random.nextInt(numLive - i);
+			int t = liveCards[j];
+			liveCards[j] = liveCards[i];
+			liveCards[i] = t;
+			dealt |= CardSet.of(t);
+		}
+		return dealt;
+	}
+	
+	private void prepareDeal(int k) {
+		if(dirty) {
+			numLive = CardSet.toArray(live, liveCards, 0);
+			dirty = false;
+		}
+		if(k < 0 || k > numLive) {
+			throw new IllegalArgumentException("Cannot deal " + k + 
+											   " cards out of " + numLive);
+		}
+	}
+	
+	/**
+	 * Removes cards given as a String such as "AhKd" from the deck
+	 * @param cards the cards to remove
+	 * @return true if the cards are well formed and were all in the deck;
+	 * nothing is removed if they are malformed
+	 */
 	public boolean removeCards(String cards) {
-		int l = cards.length(); 
-		if(l % 2 != 0) {
+		long set = CardCodec.parse(cards);
+		if(set < 0) {
 			return false;
-		} else {
-			int numOfCards = l / 2;
-			for(int i = 0; i < numOfCards; i++) {
-				Card card = new Card(cards.substring(2 * i, 2 * i +2));
-				if(!remove(card)) return false;
-			}
-			return true;
 		}
+		return removeCards(set);
+	}
+	
+	/**
+	 * Removes a set of cards from the deck
+	 * @param cards the cards to remove, see {@link CardSet}
+	 * @return true if all the cards were in the deck
+	 */
+	public boolean removeCards(long cards) {
+		boolean removed = (live & cards) == cards;
+		live &= ~cards;
+		dirty = true;
+		return removed;
 	}
 	
 	public boolean remove(Card card) {
-		int index = card.getIndex();
-		if(cards[index] != null) {
-			cards[index] = null;
+		long bit = CardSet.of(card.getIndex());
+		if((live & bit) != 0) {
+			live &= ~bit;
+			dirty = true;
 			return true;
 		}  else {
 			return false;
@@ -62,15 +179,33 @@ public class Deck {
 	}
 	
 	public boolean putBack(Card card) {
-		int index = card.getIndex();
-		if(cards[index] == null) {
-			cards[index] = card;
+		long bit = CardSet.of(card.getIndex());
+		if((live & bit) == 0) {
+			live |= bit;
+			dirty = true;
 			return true;
 		}  else {
 			return false;
 		}
 	}
 	
+	/**
+	 * Puts a set of cards back in the deck
+	 * @param cards the cards to put back, see {@link CardSet}
+	 */
+	public void putBack(long cards) {
+		live |= cards;
+		dirty = true;
+	}
+	
+	/**
+	 * The cards still in the deck
+	 * @return the set of cards, see {@link CardSet}
+	 */
+	public long getCardSet() {
+		return live;
+	}
+	
 	public void reset() { 
 		position = 0;
 	}
@@ -79,15 +214,21 @@ public class Deck {
 		return (position < Card.NUM_CARDS) ? true : false;
 	}
 	
+	/**
+	 * The card at a position of the deck
+	 * @param index the position
+	 * @return the card or null if it has been removed
+	 */
 	public Card getCard(int index) {
-		return cards[index];
+		Card card = cards[index];
+		return CardSet.contains(live, card.getIndex()) ? card : null;
 	}
 	
 	public Card nextCard() {
-		while(cards[position] == null) {
+		while(!CardSet.contains(live, cards[position].getIndex())) {
 			position++;
 		}
-		return cards[position];
+		return cards[position++];
 	}
 
 }
@@ -0,0 +1,192 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded memo cache of hand strength and hand potential keyed by the suit
+ * isomorphism class of {@link HandIndexer}, so repeated and isomorphic
+ * queries are answered without enumerating again.
+ *
+ * The cache is a fixed size direct mapped table. Entries are immutable and
+ * replace whatever was in their slot, so threads share the cache without
+ * locks and its memory never grows past the given capacity.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public class EquityCache {
+
+	private final static int HAND_STRENGTH = 0;
+
+	private final Entry[] entries;
+
+	private final int mask;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final static class Entry {
+
+		final long index;
+
+		/** 0 for hand strength, cards to come for hand potential */
+		final int type;
+
+		final double first;
+
+		final double second;
+
+		Entry(long index, int type, double first, double second) {
+			this.index = index;
+			this.type = type;
+			this.first = first;
+			this.second = second;
+		}
+
+	}
+
+	/**
+	 * Creates a cache whose hit rate is reported by {@link Metrics} as
+	 * <code>EquityCache</code>, see {@link #EquityCache(int, String)}
+	 * @param capacity maximum number of results, rounded up to a power of two
+	 */
+	public EquityCache(int capacity) {
+		this(capacity, "EquityCache");
+	}
+
+	/**
+	 * Creates a cache. When metrics are on its hits and misses are
+	 * registered with {@link Metrics#register}, replacing a cache created
+	 * earlier under the same name.
+	 * @param capacity maximum number of results, rounded up to a power of two
+	 * @param name the name of the cache in the metrics
+	 */
+	public EquityCache(int capacity, String name) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		entries = new Entry[size];
+		mask = size - 1;
+		if(Metrics.ENABLED) {
+			Metrics.register(name, this::getHits, this::getMisses);
+		}
+	}
+
+	/**
+	 * Hand strength, see {@link Hand#handStrength(long, long)}
+	 *
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards, see {@link CardSet}
+	 * @return hand strength in [0,1]
+	 */
+	public double handStrength(long holeCards, long boardCards) {
+		long index = HandIndexer.index(holeCards, boardCards);
+		Entry entry = lookup(index, HAND_STRENGTH);
+		if(entry == null) {
+			double hs = Hand.handStrength(HandIndexer.holeCards(index),
+										  HandIndexer.boardCards(index));
+			entry = store(index, HAND_STRENGTH, hs, 0);
+		}
+		return entry.first;
+	}
+
+	/**
+	 * Hand potential, see
+	 * {@link Hand#parallelHandPotential(long, long, int, ForkJoinPool)}
+	 *
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards, see {@link CardSet}
+	 * @param ahead number of cards to come, 1 or 2
+	 * @return the positive and negative potential
+	 */
+	public double[] handPotential(long holeCards, long boardCards, int ahead) {
+		long index = HandIndexer.index(holeCards, boardCards);
+		Entry entry = lookup(index, ahead);
+		if(entry == null) {
+			double[] potentials = Hand.parallelHandPotential(
+				HandIndexer.holeCards(index), HandIndexer.boardCards(index),
+				ahead, ForkJoinPool.commonPool());
+			entry = store(index, ahead, potentials[Hand.POSITIVE],
+						  potentials[Hand.NEGATIVE]);
+		}
+		double[] potentials = new double[Hand.NUM_POTENTIALS];
+		potentials[Hand.POSITIVE] = entry.first;
+		potentials[Hand.NEGATIVE] = entry.second;
+		return potentials;
+	}
+
+	/**
+	 * Number of queries answered from the cache
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of queries that had to be computed
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Maximum number of results kept
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return entries.length;
+	}
+
+	/**
+	 * Removes all the results
+	 */
+	public void clear() {
+		for(int i = 0; i < entries.length; i++) {
+			entries[i] = null;
+		}
+	}
+
+	private Entry lookup(long index, int type) {
+		Entry entry = entries[slot(index, type)];
+		if(entry != null && entry.index == index && entry.type == type) {
+			hits.increment();
+			return entry;
+		}
+		misses.increment();
+		return null;
+	}
+
+	private Entry store(long index, int type, double first, double second) {
+		Entry entry = new Entry(index, type, first, second);
+		entries[slot(index, type)] = entry;
+		return entry;
+	}
+
+	private int slot(long index, int type) {
+		long h = (index + type) * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	public static void main(String[] args) {
+		EquityCache cache = new EquityCache(1 << 16);
+		long start = System.nanoTime();
+		double hs = cache.handStrength(CardSet.parse("AhKh"),
+									   CardSet.parse("2h7h9c"));
+		long end = System.nanoTime();
+		System.out.println("Hand Strength of AhKh-2h7h9c : " + hs +
+						   " (" + (end - start) + " ns)");
+		start = System.nanoTime();
+		hs = cache.handStrength(CardSet.parse("AsKs"),
+								CardSet.parse("9d2s7s"));
+		end = System.nanoTime();
+		System.out.println("Hand Strength of AsKs-9d2s7s : " + hs +
+						   " (" + (end - start) + " ns)");
+		System.out.println("Hits " + cache.getHits() +
+						   " Misses " + cache.getMisses());
+	}
+
+}
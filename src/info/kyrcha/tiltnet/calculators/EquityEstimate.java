@@ -0,0 +1,53 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+/**
+ * Result of a sampled equity calculation.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class EquityEstimate {
+
+	private final double equity;
+
+	private final double error;
+
+	private final int samples;
+
+	public EquityEstimate(double equity, double error, int samples) {
+		this.equity = equity;
+		this.error = error;
+		this.samples = samples;
+	}
+
+	/**
+	 * Estimated share of the pot won on average
+	 * @return the equity in [0,1]
+	 */
+	public double getEquity() {
+		return equity;
+	}
+
+	/**
+	 * Half width of the confidence interval of the estimate
+	 * @return the error bound
+	 */
+	public double getError() {
+		return error;
+	}
+
+	/**
+	 * Number of deals the estimate is based on
+	 * @return the number of samples
+	 */
+	public int getSamples() {
+		return samples;
+	}
+
+	public String toString() {
+		return equity + " +/- " + error + " (" + samples + " samples)";
+	}
+
+}
@@ -0,0 +1,715 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Equity server for the bots of a host, so that one warmed up JVM with one
+ * set of tables answers all of them. It listens on the loopback interface
+ * and speaks a line protocol, one request per line and one reply per
+ * request:
+ * <pre>
+ * RANK 7c8sAhKh7d2hQh         OK 384459
+ * HS AhKd 2c7hTs              OK 0.596207
+ * POT AhKd 2c7hTs 2           OK 0.207404 0.234796
+ * EHS AhKd 2c7hTs 1           OK 0.596207 0.111340 0.125782 0.566173
+ * EQUITY AhKd QsQc 2c7hTs     OK 0.247475
+ * </pre>
+ * RANK takes five to seven cards, POT and EHS the number of cards to come
+ * (1 or 2) and EQUITY the hero's and the villain's hole cards and an
+ * optional board. Bad requests get <code>ERR</code> and a message. A line
+ * longer than 256 bytes is refused with <code>ERR Request too long</code>
+ * as soon as its 257th byte arrives, and the rest of it is skipped.
+ *
+ * Every connection is served by its own thread, a virtual thread when the
+ * JVM has them (Java 21 and later) and a pooled platform thread otherwise;
+ * it parses a line, queues the request and waits for the reply. A few
+ * workers take the RANK and HS requests from their queue in batches, so
+ * requests of concurrent connections are evaluated together: hands to rank
+ * go through {@link SimdEvaluator} in one batch, and hand strengths on the
+ * same board share one {@link BoardContext}. POT, EHS and EQUITY requests
+ * take milliseconds to seconds (an EQUITY without a board enumerates every
+ * board), so they go to a queue of their own, served one request at a
+ * time by as many other workers; a long request never holds up a batch of
+ * short ones. The request queues and the number of connections are
+ * bounded; a request that does not fit in its queue is answered with
+ * <code>BUSY</code> right away and a connection over the limit gets
+ * <code>BUSY</code> and is closed, so a client can back off instead of
+ * piling up work.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public class EquityServer implements Closeable {
+
+	/** Default port */
+	public final static int DEFAULT_PORT = 7412;
+
+	/** Reply to a request that is refused because the server is full */
+	public final static String BUSY = "BUSY";
+
+	private final static String OK = "OK";
+
+	private final static String ERR = "ERR";
+
+	/** Longest request line accepted */
+	private final static int MAX_LINE = 256;
+
+	private final static int RANK = 0;
+
+	private final static int HS = 1;
+
+	private final static int POT = 2;
+
+	private final static int EHS = 3;
+
+	private final static int EQUITY = 4;
+
+	/**
+	 * A parsed request waiting for its reply
+	 */
+	private final static class Request {
+
+		final int type;
+
+		final long holeCards;
+
+		final long boardCards;
+
+		/** Cards to come, or the villain's cards of an EQUITY request */
+		final long extra;
+
+		final CompletableFuture<String> reply = new CompletableFuture<String>();
+
+		Request(int type, long holeCards, long boardCards, long extra) {
+			this.type = type;
+			this.holeCards = holeCards;
+			this.boardCards = boardCards;
+			this.extra = extra;
+		}
+
+	}
+
+	/** Evaluation order within a batch: by type, then by board */
+	private final static Comparator<Request> BY_WORK =
+		Comparator.<Request>comparingInt(r -> r.type)
+				  .thenComparingLong(r -> r.boardCards);
+
+	private final ServerSocket socket;
+
+	/** RANK and HS requests, evaluated in batches */
+	private final BlockingQueue<Request> queue;
+
+	/** POT, EHS and EQUITY requests, evaluated one at a time */
+	private final BlockingQueue<Request> longQueue;
+
+	private final int maxBatch;
+
+	private final Semaphore connections;
+
+	private final ExecutorService handlers;
+
+	private final Thread[] workers;
+
+	private final ForkJoinPool pool;
+
+	private final BoardContextCache boards = new BoardContextCache(1024);
+
+	private final AtomicInteger busy = new AtomicInteger();
+
+	private volatile boolean closed;
+
+	/**
+	 * Starts a server on the loopback interface
+	 *
+	 * @param port the port, 0 for any free port
+	 * @param workers number of threads evaluating batches, and of threads
+	 * evaluating the long requests
+	 * @param queueSize maximum number of queued requests of each queue
+	 * @param maxBatch maximum number of requests evaluated together
+	 * @param maxConnections maximum number of open connections
+	 * @throws IOException if the port cannot be bound
+	 */
+	public EquityServer(int port, int workers, int queueSize, int maxBatch,
+						int maxConnections) throws IOException {
+		if(workers < 1 || queueSize < 1 || maxBatch < 1 || maxConnections < 1) {
+			throw new IllegalArgumentException("Bad server limits");
+		}
+		this.queue = new ArrayBlockingQueue<Request>(queueSize);
+		this.longQueue = new ArrayBlockingQueue<Request>(queueSize);
+		this.maxBatch = maxBatch;
+		this.connections = new Semaphore(maxConnections);
+		this.pool = ForkJoinPool.commonPool();
+		this.handlers = handlerExecutor();
+		this.socket = new ServerSocket(port, 128,
+									   InetAddress.getLoopbackAddress());
+		if(Metrics.ENABLED) {
+			Metrics.register("EquityServer.boards", boards::getHits,
+							 boards::getMisses);
+		}
+		this.workers = new Thread[2 * workers];
+		for(int i = 0; i < workers; i++) {
+			this.workers[i] = new Thread(this::work, "equity-worker-" + i);
+			this.workers[workers + i] = new Thread(this::workLong,
+												   "equity-long-worker-" + i);
+		}
+		for(Thread worker : this.workers) {
+			worker.setDaemon(true);
+			worker.start();
+		}
+		Thread acceptor = new Thread(this::accept, "equity-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Starts a server with a worker and a long request worker per
+	 * processor, queues of 4096 requests, batches of up to 256 requests
+	 * and up to 1024 connections
+	 *
+	 * @param port the port, 0 for any free port
+	 * @throws IOException if the port cannot be bound
+	 */
+	public EquityServer(int port) throws IOException {
+		this(port, Runtime.getRuntime().availableProcessors(), 4096, 256,
+			 1024);
+	}
+
+	/**
+	 * A thread per task, virtual if the JVM supports them. Looked up by
+	 * name so the class still compiles and runs on Java 17.
+	 */
+	private static ExecutorService handlerExecutor() {
+		try {
+			return (ExecutorService) Executors.class
+				.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(r -> {
+				Thread thread = new Thread(r, "equity-connection");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * The port the server listens on
+	 * @return the port
+	 */
+	public int getPort() {
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * Number of requests and connections refused so far
+	 * @return the count
+	 */
+	public int getBusyCount() {
+		return busy.get();
+	}
+
+	private void accept() {
+		while(!closed) {
+			try {
+				Socket client = socket.accept();
+				if(!connections.tryAcquire()) {
+					busy.incrementAndGet();
+					try(Socket refused = client) {
+						refused.getOutputStream().write(
+							(BUSY + "\n").getBytes(StandardCharsets.US_ASCII));
+					} catch(IOException e) {
+						// The client is gone anyway
+					}
+					continue;
+				}
+				handlers.execute(() -> {
+					try {
+						serve(client);
+					} finally {
+						connections.release();
+					}
+				});
+			} catch(IOException e) {
+				if(!closed) e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Serves the requests of a connection until the client closes it
+	 */
+	private void serve(Socket client) {
+		try(Socket s = client;
+			LineReader in = new LineReader(s.getInputStream());
+			Writer out = new OutputStreamWriter(s.getOutputStream(),
+												StandardCharsets.US_ASCII)) {
+			s.setTcpNoDelay(true);
+			String line;
+			while((line = in.readLine()) != null) {
+				out.write(in.isTooLong() ? ERR + " Request too long" :
+						  answer(line));
+				out.write('\n');
+				// Pipelined requests are answered before flushing, a refused
+				// line right away, before the rest of it is dropped
+				if(in.isTooLong() || !in.ready()) out.flush();
+			}
+		} catch(SocketException e) {
+			// Connection reset or server closed
+		} catch(IOException e) {
+			if(!closed) e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads the request lines of a connection through a fixed buffer, so a
+	 * line is never kept beyond MAX_LINE bytes whatever the client sends: a
+	 * longer line is returned as refused and its remaining bytes are read
+	 * and dropped before the next line
+	 */
+	private final static class LineReader implements Closeable {
+
+		private final InputStream in;
+
+		private final byte[] buffer = new byte[8192];
+
+		private int position;
+
+		private int limit;
+
+		/** The line so far, with room for a carriage return */
+		private final char[] line = new char[MAX_LINE + 1];
+
+		private boolean tooLong;
+
+		/** Whether the rest of a refused line is still to be dropped */
+		private boolean skipping;
+
+		LineReader(InputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * The next line, without its terminator
+		 * @return the line, null at the end of the stream, or an empty line
+		 * with {@link #isTooLong()} set as soon as the line exceeds MAX_LINE
+		 * bytes
+		 */
+		String readLine() throws IOException {
+			int length = 0;
+			tooLong = false;
+			while(true) {
+				if(position == limit) {
+					limit = in.read(buffer, 0, buffer.length);
+					position = 0;
+					if(limit <= 0) {
+						limit = 0;
+						return length > 0 ? new String(line, 0, length) : null;
+					}
+				}
+				byte b = buffer[position++];
+				if(skipping) {
+					skipping = b != '\n';
+					continue;
+				}
+				if(b == '\n') {
+					if(length > 0 && line[length - 1] == '\r') length--;
+					return new String(line, 0, length);
+				}
+				if(length == line.length ||
+				   (length == MAX_LINE && b != '\r')) {
+					tooLong = true;
+					skipping = true;
+					return "";
+				}
+				line[length++] = (char) (b & 0xFF);
+			}
+		}
+
+		/**
+		 * Whether the last line was refused for its length
+		 */
+		boolean isTooLong() {
+			return tooLong;
+		}
+
+		/**
+		 * Whether a line can be read without blocking
+		 */
+		boolean ready() throws IOException {
+			return position < limit || in.available() > 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+	}
+
+	/**
+	 * The reply to a request line
+	 */
+	private String answer(String line) {
+		Request request;
+		try {
+			request = parse(line.trim());
+		} catch(IllegalArgumentException e) {
+			return ERR + " " + e.getMessage();
+		}
+		BlockingQueue<Request> target = request.type == RANK ||
+			request.type == HS ? queue : longQueue;
+		if(closed || !target.offer(request)) {
+			busy.incrementAndGet();
+			return BUSY;
+		}
+		try {
+			return request.reply.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return ERR + " Interrupted";
+		} catch(ExecutionException e) {
+			return ERR + " " + e.getCause().getMessage();
+		}
+	}
+
+	private static long cards(String cards, int min, int max) {
+		long set = CardCodec.parse(cards);
+		if(set < 0 || CardSet.size(set) < min || CardSet.size(set) > max) {
+			throw new IllegalArgumentException("Bad cards: " + cards);
+		}
+		return set;
+	}
+
+	private static void overlap(long one, long two) {
+		if(!CardSet.disjoint(one, two)) {
+			throw new IllegalArgumentException("Cards dealt twice: " +
+				CardSet.toString(one & two));
+		}
+	}
+
+	/**
+	 * Parses a request line
+	 * @throws IllegalArgumentException if the request is not valid
+	 */
+	private static Request parse(String line) {
+		String[] words = line.split("\\s+");
+		String command = words[0].toUpperCase(Locale.ROOT);
+		int arguments = words.length - 1;
+		switch(command) {
+		case "RANK":
+			if(arguments != 1) break;
+			return new Request(RANK, cards(words[1], 5, Hand.MAX_CARDS), 0, 0);
+		case "HS":
+			if(arguments != 2) break;
+			long hole = cards(words[1], 2, 2);
+			long board = cards(words[2], 0, 5);
+			overlap(hole, board);
+			return new Request(HS, hole, board, 0);
+		case "POT":
+		case "EHS":
+			if(arguments != 3) break;
+			hole = cards(words[1], 2, 2);
+			board = cards(words[2], 3, 4);
+			overlap(hole, board);
+			int ahead;
+			try {
+				ahead = Integer.parseInt(words[3]);
+			} catch(NumberFormatException e) {
+				ahead = 0;
+			}
+			if(ahead < 1 || ahead > 2 || CardSet.size(board) + ahead > 5) {
+				throw new IllegalArgumentException("Bad cards to come: " +
+												   words[3]);
+			}
+			return new Request(command.equals("POT") ? POT : EHS, hole, board,
+							   ahead);
+		case "EQUITY":
+			if(arguments != 2 && arguments != 3) break;
+			hole = cards(words[1], 2, 2);
+			long villain = cards(words[2], 2, 2);
+			board = arguments == 3 ? cards(words[3], 0, 5) : CardSet.EMPTY;
+			overlap(hole, villain);
+			overlap(hole | villain, board);
+			return new Request(EQUITY, hole, board, villain);
+		default:
+			throw new IllegalArgumentException("Unknown request: " + words[0]);
+		}
+		throw new IllegalArgumentException("Bad arguments for " + command);
+	}
+
+	/**
+	 * Takes requests off the queue, as many as are waiting up to a batch,
+	 * and evaluates them together
+	 */
+	private void work() {
+		List<Request> batch = new ArrayList<Request>(maxBatch);
+		long[] masks = new long[maxBatch];
+		int[] ranks = new int[maxBatch];
+		while(true) {
+			try {
+				batch.add(queue.take());
+			} catch(InterruptedException e) {
+				break;
+			}
+			queue.drainTo(batch, maxBatch - 1);
+			try {
+				evaluate(batch, masks, ranks);
+			} catch(RuntimeException e) {
+				for(Request request : batch) {
+					request.reply.completeExceptionally(e);
+				}
+			}
+			batch.clear();
+		}
+		refuse(queue);
+	}
+
+	/**
+	 * Takes the long requests off their queue and evaluates them one at a
+	 * time
+	 */
+	private void workLong() {
+		while(true) {
+			Request request;
+			try {
+				request = longQueue.take();
+			} catch(InterruptedException e) {
+				break;
+			}
+			try {
+				request.reply.complete(evaluateLong(request));
+			} catch(RuntimeException e) {
+				request.reply.completeExceptionally(e);
+			}
+		}
+		refuse(longQueue);
+	}
+
+	/**
+	 * Closed: nobody is going to take the rest
+	 */
+	private static void refuse(BlockingQueue<Request> queue) {
+		for(Request request; (request = queue.poll()) != null; ) {
+			request.reply.complete(BUSY);
+		}
+	}
+
+	private void evaluate(List<Request> batch, long[] masks, int[] ranks) {
+		batch.sort(BY_WORK);
+		int n = 0;
+		while(n < batch.size() && batch.get(n).type == RANK) {
+			masks[n] = batch.get(n).holeCards;
+			n++;
+		}
+		SimdEvaluator.rank(masks, ranks, 0, n);
+		for(int i = 0; i < n; i++) {
+			batch.get(i).reply.complete(OK + " " + ranks[i]);
+		}
+		BoardContext context = null;
+		for(int i = n; i < batch.size(); i++) {
+			Request request = batch.get(i);
+			double hs;
+			if(CardSet.size(request.boardCards) >= 3) {
+				// The batch is sorted by board
+				if(context == null ||
+				   context.getBoardCards() != request.boardCards) {
+					context = boards.get(request.boardCards);
+				}
+				hs = context.handStrength(request.holeCards);
+			} else {
+				hs = Hand.handStrength(request.holeCards, request.boardCards);
+			}
+			request.reply.complete(OK + " " + format(hs));
+		}
+	}
+
+	/**
+	 * The reply to a POT, EHS or EQUITY request
+	 */
+	private String evaluateLong(Request request) {
+		switch(request.type) {
+		case POT:
+			double[] potentials = Hand.parallelHandPotential(
+				request.holeCards, request.boardCards, (int) request.extra,
+				pool);
+			return OK + " " + format(potentials[Hand.POSITIVE]) + " " +
+				   format(potentials[Hand.NEGATIVE]);
+		case EHS:
+			double[] strengths = Hand.effectiveHandStrength(
+				request.holeCards, request.boardCards, (int) request.extra,
+				pool);
+			return OK + " " + format(strengths[Hand.HAND_STRENGTH]) + " " +
+				   format(strengths[Hand.POSITIVE_POTENTIAL]) + " " +
+				   format(strengths[Hand.NEGATIVE_POTENTIAL]) + " " +
+				   format(strengths[Hand.EFFECTIVE_STRENGTH]);
+		default:
+			return OK + " " + format(RangeEquity.equity(request.holeCards,
+				Range.of(request.extra), request.boardCards));
+		}
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.6f", value);
+	}
+
+	/**
+	 * Stops accepting connections and requests. Requests already queued
+	 * are answered with BUSY.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		socket.close();
+		for(Thread worker : workers) {
+			worker.interrupt();
+		}
+		handlers.shutdownNow();
+	}
+
+	/**
+	 * A client connection sending one request at a time
+	 */
+	private static String[] ask(BufferedReader in, PrintWriter out,
+								String... requests)
+			throws IOException {
+		String[] replies = new String[requests.length];
+		for(int i = 0; i < requests.length; i++) {
+			out.println(requests[i]);
+			out.flush();
+			replies[i] = in.readLine();
+		}
+		return replies;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length > 0) {
+			EquityServer server = new EquityServer(Integer.parseInt(args[0]));
+			System.out.println("Serving on localhost:" + server.getPort());
+			Thread.currentThread().join();
+			return;
+		}
+		// Demo: a server on a free port and a few clients
+		try(EquityServer server = new EquityServer(0)) {
+			String[] requests = {"RANK 7c8sAhKh7d2hQh", "HS AhKd 2c7hTs",
+								 "POT AhKd 2c7hTs 2", "EHS AhKd 2c7hTs 1",
+								 "EQUITY AhKd QsQc 2c7hTs", "HS AhAh 2c7hTs",
+								 "FOLD"};
+			try(Socket client = new Socket(InetAddress.getLoopbackAddress(),
+										   server.getPort());
+				BufferedReader in = new BufferedReader(new InputStreamReader(
+					client.getInputStream(), StandardCharsets.US_ASCII));
+				PrintWriter out = new PrintWriter(client.getOutputStream())) {
+				String[] replies = ask(in, out, requests);
+				for(int i = 0; i < requests.length; i++) {
+					System.out.println(requests[i] + " -> " + replies[i]);
+				}
+				// A line past the limit is refused, the next one is served
+				char[] flood = new char[100000];
+				java.util.Arrays.fill(flood, 'A');
+				String[] refused = ask(in, out, new String(flood), requests[1]);
+				System.out.println("A " + flood.length + " byte line -> " +
+								   refused[0] + ", then " + refused[1]);
+			}
+			// A hand strength is not held up by a preflop equity
+			CompletableFuture<String> preflop = CompletableFuture.supplyAsync(
+				() -> {
+					try(Socket client = new Socket(
+							InetAddress.getLoopbackAddress(), server.getPort());
+						BufferedReader in = new BufferedReader(
+							new InputStreamReader(client.getInputStream(),
+												  StandardCharsets.US_ASCII));
+						PrintWriter out = new PrintWriter(
+							client.getOutputStream())) {
+						return ask(in, out, "EQUITY AhKd QsQc")[0];
+					} catch(IOException e) {
+						return e.toString();
+					}
+				});
+			Thread.sleep(50);
+			try(Socket client = new Socket(InetAddress.getLoopbackAddress(),
+										   server.getPort());
+				BufferedReader in = new BufferedReader(new InputStreamReader(
+					client.getInputStream(), StandardCharsets.US_ASCII));
+				PrintWriter out = new PrintWriter(client.getOutputStream())) {
+				long start = System.nanoTime();
+				String reply = ask(in, out, requests[1])[0];
+				long end = System.nanoTime();
+				System.out.println(requests[1] + " during a preflop EQUITY -> " +
+					reply + " in " + TimeUnit.NANOSECONDS.toMillis(end - start) +
+					" ms, EQUITY AhKd QsQc -> " + preflop.get());
+			}
+			// Concurrent clients asking hand strengths on a few boards
+			int clients = 64;
+			int perClient = 2000;
+			Thread[] threads = new Thread[clients];
+			AtomicInteger mismatches = new AtomicInteger();
+			long start = System.nanoTime();
+			for(int c = 0; c < clients; c++) {
+				int seed = c;
+				threads[c] = new Thread(() -> {
+					Deck deck = new Deck(new java.util.SplittableRandom(seed));
+					try(Socket client = new Socket(
+							InetAddress.getLoopbackAddress(), server.getPort());
+						BufferedReader in = new BufferedReader(
+							new InputStreamReader(client.getInputStream(),
+												  StandardCharsets.US_ASCII));
+						PrintWriter out = new PrintWriter(
+							client.getOutputStream())) {
+						long board = CardSet.parse("2c7hTs");
+						deck.removeCards(board);
+						for(int i = 0; i < perClient; i++) {
+							long hole = deck.deal(2);
+							String reply = ask(in, out, "HS " +
+								CardSet.toString(hole) + " 2c7hTs")[0];
+							String expected = OK + " " +
+								format(Hand.handStrength(hole, board));
+							if(!expected.equals(reply)) {
+								mismatches.incrementAndGet();
+							}
+						}
+					} catch(IOException e) {
+						e.printStackTrace();
+					}
+				});
+				threads[c].start();
+			}
+			for(Thread thread : threads) {
+				thread.join();
+			}
+			long end = System.nanoTime();
+			System.out.println(clients + " clients, " + clients * perClient +
+				" hand strengths in " +
+				TimeUnit.NANOSECONDS.toMillis(end - start) + " ms, " +
+				mismatches + " mismatches, " + server.getBusyCount() +
+				" busy");
+		}
+	}
+
+}
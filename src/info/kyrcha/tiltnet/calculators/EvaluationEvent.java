@@ -0,0 +1,43 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of an instrumented call, see {@link Metrics}. The
+ * default and profile settings do not know the event, so it has to be
+ * enabled for a recording, e.g.
+ * <pre>
+ * -XX:StartFlightRecording=settings=profile,+info.kyrcha.tiltnet.Evaluation#enabled=true
+ * </pre>
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+@Name("info.kyrcha.tiltnet.Evaluation")
+@Label("Hand Evaluation")
+@Category("Poker")
+@Description("A hand strength, potential or heuristic call")
+final class EvaluationEvent extends jdk.jfr.Event {
+
+	@Label("Call")
+	String call;
+
+	@Label("Street")
+	String street;
+
+	@Label("Evaluations")
+	@Description("Hands ranked by the call")
+	long evaluations;
+
+	@Label("Allocated")
+	@Description("Bytes allocated by the calling thread")
+	@DataAmount
+	long allocated;
+
+}
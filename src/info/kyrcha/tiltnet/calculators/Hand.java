@@ -3,6 +3,8 @@
  */
 package info.kyrcha.tiltnet.calculators;
 
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
  */
@@ -41,12 +43,27 @@ public class Hand {
     public final static int NUM_POTENTIALS = 2;
     public final static int POSITIVE = 0;
     public final static int NEGATIVE = 1;
+    
+    // Values returned by effectiveHandStrength
+    
+    public final static int NUM_STRENGTHS = 4;
+    public final static int HAND_STRENGTH = 0;
+    public final static int POSITIVE_POTENTIAL = 1;
+    public final static int NEGATIVE_POTENTIAL = 2;
+    public final static int EFFECTIVE_STRENGTH = 3;
 
     private int[] cards;
 
     private int cardIndex;
     
-    private static int[][] rankCards;
+    /** Board contexts shared by all the callers of updateBoardRanks */
+    private final static BoardContextCache BOARDS = new BoardContextCache(256);
+    
+    static {
+    	if(Metrics.ENABLED) {
+    		Metrics.register("Hand.boards", BOARDS::getHits, BOARDS::getMisses);
+    	}
+    }
 
     /**
      * Initializes hand with no cards.
@@ -66,6 +83,16 @@ public class Hand {
     	addCards(handString);
     }
     
+    /**
+     * Initializes a hand given a set of cards.
+     * @param cardSet the cards, see {@link CardSet}
+     */
+    public Hand(long cardSet) {
+    	cardIndex = 0;
+    	cards = new int[MAX_CARDS];
+    	addCards(cardSet);
+    }
+    
     /**
      * Compares two hands and returns their relative rank
      * 
@@ -86,11 +113,12 @@ public class Hand {
     }
     
     /**
-     * Rank this hand
+     * Rank this hand using the table driven {@link HandEvaluator}
      * @return the rank
      */
     public int rankHand() {
-    	return rankHand(this);
+    	if(Metrics.ENABLED) Metrics.count(Metrics.Call.RANK_HAND, 1);
+    	return HandEvaluator.rank(this);
     }
     
     /**
@@ -154,53 +182,92 @@ public class Hand {
      * Add a batch of cards in the hand in String format
      * 
      * @param handString a string containing cards
-     * @return true if addition was successful, false otherwise
+     * @return true if addition was successful, false otherwise (malformed
+     * or repeated cards, or too many cards)
      */
     public boolean addCards(String handString) {
     	int l = handString.length();
     	int numOfCards = l / 2;
     	if(l % 2 != 0 || numOfCards > (MAX_CARDS - cardIndex)) {
     		return false;
+    	}
+    	// Parse in place, only counting the cards once they are all valid
+    	long current = getCardSet();
+    	int n = CardCodec.parseCards(handString, 0, l, cards, cardIndex);
+    	if(n < 0) {
+    		return false;
+    	}
+    	for(int i = cardIndex; i < cardIndex + n; i++) {
+    		if(CardSet.contains(current, cards[i])) return false;
+    	}
+    	cardIndex += n;
+    	return true;
+    }
+    
+    /**
+     * Add a set of cards in the hand
+     * 
+     * @param cardSet the cards, see {@link CardSet}
+     * @return true if addition was successful, false otherwise (cards
+     * already in the hand, or too many cards)
+     */
+    public boolean addCards(long cardSet) {
+    	if(CardSet.size(cardSet) > (MAX_CARDS - cardIndex) ||
+    	   (cardSet & getCardSet()) != 0) {
+    		return false;
     	} else {
-    		for(int i = 0; i < numOfCards; i++) {
-    			addCard(new Card(handString.substring(2 * i, 2 * i + 2)));
-    		}
+    		cardIndex += CardSet.toArray(cardSet, cards, cardIndex);
     		return true;
     	}
     }
     
-    public String toString() {
-    	String string = new String();
-    	for(int i = 0; i < cards.length; i++) {
-    		string += (new Card(cards[i])).toString();
+    /**
+     * Get the cards of the hand as a set
+     * @return the set of cards, see {@link CardSet}
+     */
+    public long getCardSet() {
+    	long set = CardSet.EMPTY;
+    	for(int i = 0; i < cardIndex; i++) {
+    		set |= CardSet.of(cards[i]);
     	}
-    	return string;
+    	return set;
+    }
+    
+    public String toString() {
+    	return CardCodec.toString(cards, 0, cardIndex);
     }
     
     /**
      * Given a board, cache all possible two card combinations of hand ranks, so
-     * that lightening fast hand comparisons may be done later.
+     * that lightening fast hand comparisons may be done later. The ranks are
+     * kept in a shared {@link BoardContextCache}, so it is safe to call from
+     * several threads; use {@link BoardContext} directly to avoid the copy.
      */
     public static int[][] updateBoardRanks(String boardCards) {
-    	Hand board = new Hand(boardCards);
-    	int[][] rc = new int[52][52];
-    	Deck d = new Deck();
-    	d.removeCards(boardCards);
-    	for (int i = 0; i < Card.NUM_CARDS - 1; i++) {
-    		Card c1 = d.getCard(i);
-    		if(c1 == null) continue;
-    		board.addCard(c1);
-    		for(int j = i + 1; j < Card.NUM_CARDS; j++) {
-    			Card c2 = d.getCard(j);
-    			if(c2 == null) continue;
-    			board.addCard(c2);
-    			int ind1 = c1.getIndex();
-    			int ind2 = c2.getIndex();
-    			rc[ind1][ind2] = rc[ind2][ind1] = rankHand(board);
-    		}	
+    	return BOARDS.get(parse(boardCards, 3, 5, CardSet.EMPTY)).toMatrix();
+    }
+    
+    /**
+     * Parse the cards of a String entry point
+     * 
+     * @param cards the cards, two characters each
+     * @param min minimum number of cards
+     * @param max maximum number of cards
+     * @param dealt cards already taken, which must not appear again
+     * @return the set of cards, see {@link CardSet}
+     * @throws IllegalArgumentException if a card is malformed or repeated,
+     * the number of cards is wrong or a card was already dealt
+     */
+    private static long parse(String cards, int min, int max, long dealt) {
+    	long set = CardSet.parse(cards);
+    	if(set < 0 || CardSet.size(set) < min || CardSet.size(set) > max) {
+    		throw new IllegalArgumentException("Bad cards: " + cards);
     	}
-    	rankCards = rc;
-    	return rc;
+    	if(!CardSet.disjoint(set, dealt)) {
+    		throw new IllegalArgumentException("Cards dealt twice: " + 
+    										   CardSet.toString(set & dealt));
+    	}
+    	return set;
     }
     
 	/**
@@ -212,125 +279,258 @@ public class Hand {
 	 * @return hand strength in [0,1]
 	 */
     public static double handStrength(String holeCards, String boardCards) {
-    	double ahead = 0;
-    	double tied = 0;
-    	double behind = 0;
+    	long hole = parse(holeCards, 2, 2, CardSet.EMPTY);
+    	return handStrength(hole, parse(boardCards, 0, 5, hole));
+    }
+    
+	/**
+	 * Given my hole cards and the board cards so far calculate the
+	 * hand strength, i.e. the fraction of the opponent hole cards my hand
+	 * is ahead of, counting ties as half. Ranks are computed with the
+	 * {@link HandEvaluator} from the board's rank key and no objects are
+	 * created.
+	 * 
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards, see {@link CardSet}
+	 * @return hand strength in [0,1]
+	 */
+    public static double handStrength(long holeCards, long boardCards) {
+    	Metrics.Probe probe = Metrics.ENABLED ? Metrics.begin(
+    		Metrics.Call.HAND_STRENGTH, CardSet.size(boardCards)) : null;
+    	int ahead = 0;
+    	int tied = 0;
+    	int behind = 0;
     	// Rank my hand based on hole and board cards
-    	Hand myHand = new Hand(holeCards + boardCards);
-    	int rank = myHand.rankHand();
-    	Deck deck = new Deck();
-    	deck.removeCards(holeCards);
-    	deck.removeCards(boardCards);
-    	for(int i = 0; i < Card.NUM_CARDS - 1; i++) {
-    		Card oppHoleCard1 = deck.getCard(i);
-    		if(oppHoleCard1 == null) continue;
-    		for(int j = i + 1; j < Card.NUM_CARDS; j++) {
-    			Card oppHoleCard2 = deck.getCard(j);
-        		if(oppHoleCard2 == null) continue;
-        		Hand oppHand = new Hand();
-        		oppHand.addCards(boardCards);
-        		oppHand.addCard(oppHoleCard1);
-        		oppHand.addCard(oppHoleCard2);
-        		int oppRank = oppHand.rankHand();
-            	if(rank > oppRank) ahead++;
-            	else if(rank == oppRank) tied++;
-            	else behind++;
+    	int boardKey = HandEvaluator.rankKey(boardCards);
+    	int rank = HandEvaluator.rank(boardKey + 
+    								  HandEvaluator.rankKey(holeCards), 
+    								  holeCards | boardCards);
+    	long deck = CardSet.FULL & ~(holeCards | boardCards);
+    	for(long s1 = deck; s1 != 0; s1 = CardSet.removeFirst(s1)) {
+    		int oppHoleCard1 = CardSet.first(s1);
+    		int key = boardKey + HandEvaluator.rankKey(oppHoleCard1);
+    		long mask = boardCards | CardSet.of(oppHoleCard1);
+    		for(long s2 = CardSet.removeFirst(s1); s2 != 0; 
+    				s2 = CardSet.removeFirst(s2)) {
+    			int oppHoleCard2 = CardSet.first(s2);
+    			int oppRank = HandEvaluator.rank(
+    					key + HandEvaluator.rankKey(oppHoleCard2), 
+    					mask | CardSet.of(oppHoleCard2));
+    			if(rank > oppRank) ahead++;
+    			else if(rank == oppRank) tied++;
+    			else behind++;
     		}
     	}
-    	return (ahead + (tied / 2)) / (ahead + tied + behind);
+    	if(probe != null) probe.end(1 + ahead + tied + behind);
+    	return (ahead + (tied / 2.0)) / (ahead + tied + behind);
     }
     
+    /**
+     * Given my hole cards and the board cards so far calculate the positive
+     * and negative potential, enumerating every opponent hole cards and 
+     * every runout of the cards to come on this thread. Both are counted as
+     * subsets of the live cards by a {@link HandPotentialCounter}, so one 
+     * or two cards to come take the same path.
+     * 
+     * @param holeCards the cards in my hand
+     * @param boardCards community cards
+     * @param ahead number of cards to come, 1 or 2
+     * @return the positive and negative potential
+     */
     public static double[] handPotential(String holeCards, 
     									 String boardCards, 
     									 int ahead) {
-    	StringBuilder sb, sbOpp;
-    	Card first, second;
-    	int i, j, oppRank, index, myRank, oppBest, 
-    		ourBest;
-    	int[][] hp = new int[NUM_REL_RANKS][NUM_REL_RANKS];
-    	int[] hpTotal = new int[NUM_REL_RANKS];
+    	long hole = parse(holeCards, 2, 2, CardSet.EMPTY);
+    	return handPotential(hole, parse(boardCards, 3, 4, hole), ahead);
+    }
+    
+    /**
+     * Serial version of 
+     * {@link #parallelHandPotential(long, long, int, ForkJoinPool)}
+     * 
+     * @param holeCards the cards in my hand, see {@link CardSet}
+     * @param boardCards community cards, see {@link CardSet}
+     * @param ahead number of cards to come, 1 or 2
+     * @return the positive and negative potential
+     */
+    public static double[] handPotential(long holeCards, long boardCards, 
+    									 int ahead) {
+    	Metrics.Probe probe = Metrics.ENABLED ? Metrics.begin(
+    		Metrics.Call.HAND_POTENTIAL, CardSet.size(boardCards)) : null;
+    	HandPotentialCounter counter = new HandPotentialCounter();
+    	counter.count(holeCards, boardCards, ahead);
+    	if(probe != null) probe.end(evaluations(counter, counter.hpTotal));
+    	return potentials(counter.hp, counter.hpTotal);
+    }
+    
+    /**
+     * Parallel version of {@link #handPotential(String, String, int)}.
+     * 
+     * @param holeCards the cards in my hand
+     * @param boardCards community cards
+     * @param ahead number of cards to come, 1 or 2
+     * @return the positive and negative potential
+     */
+    public static double[] parallelHandPotential(String holeCards, 
+    											 String boardCards, 
+    											 int ahead) {
+    	long hole = parse(holeCards, 2, 2, CardSet.EMPTY);
+    	return parallelHandPotential(hole, parse(boardCards, 3, 4, hole), 
+    								 ahead, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Calculate the hand potential splitting the enumeration of the 
+     * opponent hole cards in fork/join tasks. Every task counts in its own
+     * matrices and the counts are summed at the end, so the result is the
+     * same as the one of the serial version.
+     * 
+     * @param holeCards the cards in my hand, see {@link CardSet}
+     * @param boardCards community cards, see {@link CardSet}
+     * @param ahead number of cards to come, 1 or 2
+     * @param pool the pool running the tasks
+     * @return the positive and negative potential
+     */
+    public static double[] parallelHandPotential(long holeCards, 
+    											 long boardCards, 
+    											 int ahead, 
+    											 ForkJoinPool pool) {
+    	Metrics.Probe probe = Metrics.ENABLED ? Metrics.begin(
+    		Metrics.Call.HAND_POTENTIAL, CardSet.size(boardCards)) : null;
+    	HandPotentialTask task = new HandPotentialTask(holeCards, boardCards, 
+    												   ahead);
+    	pool.invoke(task);
+    	if(probe != null) probe.end(evaluations(task.counter, task.hpTotal));
+    	return potentials(task.hp, task.hpTotal);
+    }
+    
+    /**
+     * Calculate the hand strength, the positive and negative potential and
+     * the effective hand strength EHS = HS * (1 - NPOT) + (1 - HS) * PPOT 
+     * from a single enumeration, see 
+     * {@link #effectiveHandStrength(long, long, int, ForkJoinPool)}
+     * 
+     * @param holeCards the cards in my hand
+     * @param boardCards community cards
+     * @param ahead number of cards to come, 1 or 2
+     * @return the values indexed by HAND_STRENGTH, POSITIVE_POTENTIAL,
+     * NEGATIVE_POTENTIAL and EFFECTIVE_STRENGTH
+     */
+    public static double[] effectiveHandStrength(String holeCards, 
+    											 String boardCards, 
+    											 int ahead) {
+    	long hole = parse(holeCards, 2, 2, CardSet.EMPTY);
+    	return effectiveHandStrength(hole, parse(boardCards, 3, 4, hole), 
+    								 ahead, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Calculate the hand strength, the positive and negative potential and
+     * the effective hand strength EHS = HS * (1 - NPOT) + (1 - HS) * PPOT 
+     * from a single enumeration. The potential already ranks every opponent
+     * hand on the current board once, and each opponent hand is weighted by
+     * the same number of runouts, so the counts by relative rank now give 
+     * the hand strength for free: the result is the same as calling 
+     * {@link #handStrength(long, long)} and 
+     * {@link #parallelHandPotential(long, long, int, ForkJoinPool)}.
+     * 
+     * @param holeCards the cards in my hand, see {@link CardSet}
+     * @param boardCards community cards, see {@link CardSet}
+     * @param ahead number of cards to come, 1 or 2
+     * @param pool the pool running the tasks
+     * @return the values indexed by HAND_STRENGTH, POSITIVE_POTENTIAL,
+     * NEGATIVE_POTENTIAL and EFFECTIVE_STRENGTH
+     */
+    public static double[] effectiveHandStrength(long holeCards, 
+    											 long boardCards, 
+    											 int ahead, 
+    											 ForkJoinPool pool) {
+    	Metrics.Probe probe = Metrics.ENABLED ? Metrics.begin(
+    		Metrics.Call.EFFECTIVE_STRENGTH, CardSet.size(boardCards)) : null;
+    	HandPotentialTask task = new HandPotentialTask(holeCards, boardCards, 
+    												   ahead);
+    	pool.invoke(task);
+    	if(probe != null) probe.end(evaluations(task.counter, task.hpTotal));
+    	return strengths(task.hp, task.hpTotal);
+    }
+    
+    /**
+     * Hands ranked by a {@link HandPotentialCounter}: mine now and for every
+     * runout, and the opponents' now and at every showdown
+     */
+    private static long evaluations(HandPotentialCounter counter, 
+    								int[] hpTotal) {
+    	return 1 + counter.runouts() + counter.opponents() + hpTotal[WORSE] + 
+    		   hpTotal[TIED] + hpTotal[BETTER];
+    }
+    
+    /**
+     * Hand strength, potentials and effective hand strength from the counts
+     * of the transitions between the relative rank now and at the showdown.
+     * 
+     * @param hp counts by relative rank now and at the showdown
+     * @param hpTotal counts by relative rank now
+     * @return the values indexed by HAND_STRENGTH, POSITIVE_POTENTIAL,
+     * NEGATIVE_POTENTIAL and EFFECTIVE_STRENGTH
+     */
+    final static double[] strengths(int[][] hp, int[] hpTotal) {
+    	double[] strengths = new double[NUM_STRENGTHS];
+    	strengths(hp, hpTotal, strengths);
+    	return strengths;
+    }
+    
+    /**
+     * {@link #strengths(int[][], int[])} into an array of the caller
+     * 
+     * @param hp counts by relative rank now and at the showdown
+     * @param hpTotal counts by relative rank now
+     * @param strengths receives the values indexed by HAND_STRENGTH, 
+     * POSITIVE_POTENTIAL, NEGATIVE_POTENTIAL and EFFECTIVE_STRENGTH
+     */
+    final static void strengths(int[][] hp, int[] hpTotal, 
+    							double[] strengths) {
+    	double ppot = positivePotential(hp, hpTotal);
+    	double npot = negativePotential(hp, hpTotal);
+    	double hs = (hpTotal[BETTER] + (hpTotal[TIED] / 2.0)) / 
+    				(hpTotal[BETTER] + hpTotal[TIED] + hpTotal[WORSE]);
+    	strengths[HAND_STRENGTH] = hs;
+    	strengths[POSITIVE_POTENTIAL] = ppot;
+    	strengths[NEGATIVE_POTENTIAL] = npot;
+    	// A potential is undefined (0/0) when its weight in EHS is 0
+    	double ehs = 0;
+    	if(hs > 0) ehs += hs * (1 - npot);
+    	if(hs < 1) ehs += (1 - hs) * ppot;
+    	strengths[EFFECTIVE_STRENGTH] = ehs;
+    }
+    
+    /**
+     * Positive and negative potential from the counts of the transitions 
+     * between the relative rank now and the relative rank at the showdown.
+     * 
+     * @param hp counts by relative rank now and at the showdown
+     * @param hpTotal counts by relative rank now
+     * @return the positive and negative potential
+     */
+    final static double[] potentials(int[][] hp, int[] hpTotal) {
     	double[] potentials = new double[NUM_POTENTIALS];
-    	sb = new StringBuilder(boardCards);
-    	sbOpp = new StringBuilder(boardCards);
-    	sb.append(holeCards);
-    	Deck deck = new Deck();
-    	deck.removeCards(holeCards);
-    	deck.removeCards(boardCards);
-    	// Rank my hand
-    	Hand myHand = new Hand(sb.toString());
-    	myRank = myHand.rankHand();
-    	for(i = 0; i < Card.NUM_CARDS - 1; i++) {
-    		Card oppHoleCard1 = deck.getCard(i);
-    		if(oppHoleCard1 == null) continue;
-    		deck.remove(oppHoleCard1);
-    		sbOpp.append(oppHoleCard1);
-    		for(j = i + 1; j < Card.NUM_CARDS; j++) {
-    			Card oppHoleCard2 = deck.getCard(j);
-        		if(oppHoleCard2 == null) continue;
-        		deck.remove(oppHoleCard2);
-        		sbOpp.append(oppHoleCard2);
-        		// Rank opponent's hand
-        		Hand oppHand = new Hand(sb.toString());
-        		oppRank = oppHand.rankHand();
-            	if(myRank > oppRank) index = BETTER;
-            	else if(myRank == oppRank) index = TIED;
-            	else index = WORSE;
-            	// Simulate cards ahead
-            	for(int t = 0; t < Card.NUM_CARDS + 1 - ahead; t++) {
-            		first = deck.getCard(t);
-            		if(first == null) continue;
-            		deck.remove(first);
-        			sb.append(first.toString());
-        			sbOpp.append(first.toString());
-            		if(ahead == 1) {
-            			Hand myExpHand = new Hand(sb.toString());
-            			ourBest = myExpHand.rankHand();
-            			Hand oppExpHand = new Hand(sbOpp.toString());
-            			oppBest = oppExpHand.rankHand();
-            			if(ourBest > oppBest) hp[index][BETTER]++;
-            			else if(ourBest == oppBest) hp[index][TIED]++;
-            			else hp[index][WORSE]++;
-            			hpTotal[index]++;
-            		} else if(ahead == 2){
-	            		for(int r = t+1; r < Card.NUM_CARDS; r++) {
-	            			second = deck.getCard(r);
-	            			if(second == null) continue;
-	            			sb.append(second.toString());
-	            			sbOpp.append(second.toString());
-	            			Hand myExpHand = new Hand(sb.toString());
-	            			ourBest = myExpHand.rankHand();
-	            			Hand oppExpHand = new Hand(sbOpp.toString());
-	            			oppBest = oppExpHand.rankHand();
-	            			if(ourBest > oppBest) hp[index][BETTER]++;
-	            			else if(ourBest == oppBest) hp[index][TIED]++;
-	            			else hp[index][WORSE]++;
-	            			hpTotal[index]++;
-	            			sb.delete(12, 14);
-	            			sbOpp.delete(12, 14);
-	            		}
-            		}
-            		sb.delete(10, 12);
-            		sbOpp.delete(10, 12);
-            		deck.putBack(first);
-            	}
-            	sbOpp.delete(8, 10);
-            	deck.putBack(oppHoleCard2);
-    		}
-    		sbOpp.delete(6, 8);
-    		deck.putBack(oppHoleCard1);
-    	}
-    	
-    	potentials[POSITIVE] = (hp[WORSE][BETTER] + 
-    						   (hp[WORSE][TIED]/2.0) + 
-    						   (hp[TIED][BETTER]/2.0)) / 
-    						   (hpTotal[WORSE] + (hpTotal[TIED] / 2.0));
-    	
-    	potentials[NEGATIVE] = (hp[BETTER][WORSE] + 
-			    			   (hp[TIED][WORSE]/2.0) + 
-			    			   (hp[BETTER][TIED]/2.0)) / 
-			    			   (hpTotal[BETTER] + (hpTotal[TIED] / 2.0));
+    	potentials[POSITIVE] = positivePotential(hp, hpTotal);
+    	potentials[NEGATIVE] = negativePotential(hp, hpTotal);
     	return potentials;
     }
+    
+    private static double positivePotential(int[][] hp, int[] hpTotal) {
+    	return (hp[WORSE][BETTER] + 
+    		   (hp[WORSE][TIED]/2.0) + 
+    		   (hp[TIED][BETTER]/2.0)) / 
+    		   (hpTotal[WORSE] + (hpTotal[TIED] / 2.0));
+    }
+    
+    private static double negativePotential(int[][] hp, int[] hpTotal) {
+    	return (hp[BETTER][WORSE] + 
+    		   (hp[TIED][WORSE]/2.0) + 
+    		   (hp[BETTER][TIED]/2.0)) / 
+    		   (hpTotal[BETTER] + (hpTotal[TIED] / 2.0));
+    }
 
     /**
      * Name the hand
@@ -355,6 +555,18 @@ public class Hand {
     }
     
     public final static int rankHand(Hand hand) {
+    	if(Metrics.ENABLED) Metrics.count(Metrics.Call.RANK_HAND, 1);
+    	return rankUncounted(hand);
+    }
+    
+    /**
+     * {@link #rankHand(Hand)} without counting the call in {@link Metrics},
+     * for building the tables of {@link HandEvaluator}
+     * 
+     * @param hand five to seven cards
+     * @return the rank
+     */
+    final static int rankUncounted(Hand hand) {
     	boolean[] hands = new boolean[NUM_HANDS];
     	boolean foundHand = false;
     	int[] ranks = new int[Card.NUM_RANKS];
@@ -418,33 +630,38 @@ public class Hand {
     		}
     	}
 	
-    	// Check for straight-flush
+    	// Check for straight-flush. The straight found above may use cards of
+    	// other suits, so look for five consecutive ranks within the flush suit.
+    	int straightFlushRank = -1;
     	if(hands[FLUSH] && hands[STRAIGHT]) {
-    		int counter = 0;
+    		int flushRanks = 0;
     		for(int i = 0; i < hand.getNumOfCards(); i++) {
     			int index = hand.getCardIndex(i);
-    			int cardRank = Card.getRank(index);
-    			int cardSuit = Card.getSuit(index);
-    			if(cardSuit == flushSuit) {
-    				if(highestRank == 3 && cardRank == Card.ACE) {
-    					counter++;
-    					continue;
-    				}
-    				if((cardRank <= highestRank) && cardRank >= (highestRank - 4)) {
-    					counter++;
-    				}		    
+    			if(Card.getSuit(index) == flushSuit) {
+    				flushRanks |= 1 << Card.getRank(index);
     			}
     		}
-    		if(counter >= 5) {
-    			hands[STRAIGHT_FLUSH] = true;
-    			foundHand = true;
+    		int counter = ((flushRanks & (1 << Card.ACE)) != 0) ? 1 : 0;
+    		for(int i = 0; i < Card.NUM_RANKS; i++) {
+    			if((flushRanks & (1 << i)) != 0) {
+    				counter++;
+    				if(counter >= 5) {
+    					hands[STRAIGHT_FLUSH] = true;
+    					foundHand = true;
+    					straightFlushRank = i;
+    				}
+    			} else {
+    				counter = 0;
+    			}
     		}
     	}
 
     	// Check for full house, four cards, three cards, two pairs or one pair
     	int pairOne = -1;
     	int pairTwo = -1;
+    	int pairThree = -1;
     	int trips = -1;
+    	int tripsTwo = -1;
     	int quads = -1;
     	int kickerOne = -1;
     	int kickerTwo = -1;
@@ -456,15 +673,13 @@ public class Hand {
     				foundHand = true;
     				quads = i;
     				break;
-    			} else if(ranks[i] == 3) {		    
+    			} else if(ranks[i] == 3) {
+    				tripsTwo = trips;
     				trips = i;
     			} else {
-    				if(pairOne == -1) {
-    					pairOne = i;
-    				} else {
-    					pairTwo = pairOne;
-    					pairOne = i;
-    				}
+    				pairThree = pairTwo;
+    				pairTwo = pairOne;
+    				pairOne = i;
     			}
     		} else if(ranks[i] == 1) {
     			if(kickerOne < i) {
@@ -479,10 +694,12 @@ public class Hand {
     			}
     		}
     	}
-    	if(trips != -1 && pairOne != -1) {
+    	// The lower of two trips plays as the pair of a full house
+    	int fullHousePair = Math.max(pairOne, tripsTwo);
+    	if(trips != -1 && fullHousePair != -1) {
     		hands[FULL_HOUSE] = true;
     		foundHand = true;
-    	} else if(trips != -1 && pairOne == -1) {
+    	} else if(trips != -1) {
     		hands[TRIPS] = true;
     		foundHand = true;
     	} else if(pairOne != -1 && pairTwo != -1) {
@@ -519,14 +736,23 @@ public class Hand {
 		int rank = -1;
 		if(hands[STRAIGHT_FLUSH]) { // STRAIGHT FLUSH
 		    rank = STRAIGHT_FLUSH * SHIFT;
-		    rank += highestRank;
+		    rank += straightFlushRank;
 		} else if(hands[FOUR]) { // FOUR OF A KIND
 		    rank = FOUR * SHIFT;
-		    rank += quads;
+		    // Kicker is the best of the remaining cards
+		    int kicker = -1;
+		    for(int i = Card.NUM_RANKS - 1; i >= 0; i--) {
+		    	if(i != quads && ranks[i] > 0) {
+		    		kicker = i;
+		    		break;
+		    	}
+		    }
+		    rank += quads * Card.NUM_RANKS;
+		    rank += kicker;
 		} else if(hands[FULL_HOUSE]) { // FULL HOUSE
 		    rank = FULL_HOUSE * SHIFT;
 		    rank += trips * Card.NUM_RANKS;
-		    rank += pairOne;
+		    rank += fullHousePair;
 		} else if(hands[FLUSH]) { // FLUSH
 		    rank = FLUSH * SHIFT;
 		    int power = 1;
@@ -546,7 +772,7 @@ public class Hand {
 		    rank = TWO_PAIRS * SHIFT;
 		    rank += pairOne * Card.NUM_RANKS * Card.NUM_RANKS;
 		    rank += pairTwo * Card.NUM_RANKS;
-		    rank += kickerOne;
+		    rank += Math.max(kickerOne, pairThree);
 		} else if(hands[PAIR]) { // ONE PAIR
 		    rank = PAIR * SHIFT;
 		    rank += pairOne * Card.NUM_RANKS * Card.NUM_RANKS * Card.NUM_RANKS;
@@ -587,8 +813,13 @@ public class Hand {
 				handPotential("4hJc", "6c3h5h", 2)[0]);
     	System.out.println("Positive Potential of " + "7h9h-8h6c4h : " +  
 				handPotential("7h9h", "8h6c4h", 2)[0]);
+    	System.out.println("Parallel Positive Potential of " + "7h9h-8h6c4h : " +  
+				parallelHandPotential("7h9h", "8h6c4h", 2)[0]);
+    	System.out.println("Effective Hand Strength of " + "7h9h-8h6c4h : " +  
+				effectiveHandStrength("7h9h", "8h6c4h", 2)[EFFECTIVE_STRENGTH]);
     	// Benchmark hand potential
     	long sum = 0;
+    	long parallelSum = 0;
     	int runs = 100;
     	for(int i = 0; i < runs; i++) {
     		Deck deck = new Deck();
@@ -602,8 +833,14 @@ public class Hand {
     		handPotential(holeCards, boardCards, 2);
     		long end = System.currentTimeMillis();
     		sum += end - start;
+    		start = System.currentTimeMillis();
+    		parallelHandPotential(holeCards, boardCards, 2);
+    		end = System.currentTimeMillis();
+    		parallelSum += end - start;
     	}
     	System.out.println("Avg Performance (sec): " + ((sum / (double)runs) / 1000));
+    	System.out.println("Avg Parallel Performance (sec): " + 
+    					   ((parallelSum / (double)runs) / 1000));
     }
     
 }
\ No newline at end of file
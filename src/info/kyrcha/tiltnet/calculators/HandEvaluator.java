@@ -0,0 +1,315 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+/**
+ * Table driven hand evaluator for 5, 6 and 7 card hands. It returns exactly
+ * the same ranks as {@link Hand#rankHand(Hand)}, so the results can be used
+ * with {@link Hand#compareHands(Hand, Hand)} and
+ * {@link Hand#nameOfHand(int)}, but a hand is ranked with a handful of array
+ * reads and without allocating.
+ *
+ * A hand is described by two values that can be built incrementally, one
+ * card at a time: a rank key, the sum of {@link #rankKey(int)} over the
+ * cards, and a card mask with bit <code>i</code> set for the card with
+ * index <code>i</code>. Since at most seven cards are added, every rank
+ * appears at most four times and the key holds the number of cards of each
+ * rank as base-5 digits: ranks two to eight in the low 17 bits and nine to
+ * ace in the bits above. Each half is mapped to a dense index and the two
+ * indices together address a perfect hash of all rank multisets of up to
+ * seven cards. Flushes are looked up separately by the 13-bit rank mask of
+ * the flush suit; with seven cards or less a flush can never be beaten by
+ * a hand made of the other cards.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class HandEvaluator {
+
+	private final static int LOW_RANKS = 7;
+
+	private final static int LOW_BITS = 17;
+
+	private final static int LOW_MASK = (1 << LOW_BITS) - 1;
+
+	private final static int RANK_MASK = (1 << Card.NUM_RANKS) - 1;
+
+	/** Rank key of each card index */
+	private final static int[] CARD_KEYS = new int[Card.NUM_CARDS];
+
+	/** Dense index of the low half of a rank key */
+	private final static char[] LOW_INDEX;
+
+	/** Dense index of the high half of a rank key */
+	private final static char[] HIGH_INDEX;
+
+	/** Start of the block of each low half in the rank table */
+	private final static int[] LOW_OFFSET;
+
+	/** Ranks of hands without a flush */
+	private final static int[] RANKS;
+
+	/** Ranks of flushes and straight flushes by rank mask of the flush suit */
+	private final static int[] FLUSH_RANKS = new int[1 << Card.NUM_RANKS];
+
+	static {
+		int[] rankKeys = new int[Card.NUM_RANKS];
+		int power = 1;
+		for(int r = 0; r < Card.NUM_RANKS; r++) {
+			if(r == LOW_RANKS) power = 1 << LOW_BITS;
+			rankKeys[r] = power;
+			power *= 5;
+		}
+		for(int i = 0; i < Card.NUM_CARDS; i++) {
+			CARD_KEYS[i] = rankKeys[Card.getRank(i)];
+		}
+		// Low halves in any order, high halves sorted by number of cards so
+		// that the halves which fit next to a given low half come first
+		int lowSize = pow5(LOW_RANKS);
+		int highSize = pow5(Card.NUM_RANKS - LOW_RANKS);
+		LOW_INDEX = new char[lowSize];
+		HIGH_INDEX = new char[highSize];
+		int[] highSum = new int[highSize];
+		int[] highCount = new int[Hand.MAX_CARDS + 2];
+		for(int h = 0; h < highSize; h++) {
+			int n = highSum[h] = digitSum(h);
+			if(n <= Hand.MAX_CARDS) highCount[n + 1]++;
+		}
+		for(int n = 1; n < highCount.length; n++) {
+			highCount[n] += highCount[n - 1];
+		}
+		int[] next = highCount.clone();
+		for(int h = 0; h < highSize; h++) {
+			int n = highSum[h];
+			if(n <= Hand.MAX_CARDS) HIGH_INDEX[h] = (char) next[n]++;
+		}
+		int numLow = 0;
+		for(int l = 0; l < lowSize; l++) {
+			if(digitSum(l) <= Hand.MAX_CARDS) numLow++;
+		}
+		LOW_OFFSET = new int[numLow];
+		int[] lows = new int[numLow];
+		int index = 0;
+		int offset = 0;
+		for(int l = 0; l < lowSize; l++) {
+			int n = digitSum(l);
+			if(n <= Hand.MAX_CARDS) {
+				LOW_INDEX[l] = (char) index;
+				LOW_OFFSET[index] = offset;
+				lows[index] = l;
+				offset += highCount[Hand.MAX_CARDS - n + 1];
+				index++;
+			}
+		}
+		// Rank one representative hand of every rank multiset with the
+		// reference evaluator. Suits go round robin so there is no flush.
+		RANKS = new int[offset];
+		for(int i = 0; i < numLow; i++) {
+			int lowSum = digitSum(lows[i]);
+			for(int h = 0; h < highSize; h++) {
+				if(lowSum + highSum[h] > Hand.MAX_CARDS) continue;
+				Hand hand = new Hand();
+				int suit = 0;
+				for(int r = 0; r < Card.NUM_RANKS; r++) {
+					int count = (r < LOW_RANKS) ? lows[i] / pow5(r) % 5 :
+								h / pow5(r - LOW_RANKS) % 5;
+					for(int c = 0; c < count; c++) {
+						hand.addCard(new Card(r, suit));
+						suit = (suit + 1) % Card.NUM_SUITS;
+					}
+				}
+				RANKS[LOW_OFFSET[i] + HIGH_INDEX[h]] = Hand.rankUncounted(hand);
+			}
+		}
+		for(int mask = 0; mask <= RANK_MASK; mask++) {
+			int n = Integer.bitCount(mask);
+			if(n < 5 || n > Hand.MAX_CARDS) continue;
+			Hand hand = new Hand();
+			for(int r = 0; r < Card.NUM_RANKS; r++) {
+				if((mask & (1 << r)) != 0) hand.addCard(new Card(r, Card.CLUBS));
+			}
+			FLUSH_RANKS[mask] = Hand.rankUncounted(hand);
+		}
+	}
+
+	private HandEvaluator() {
+	}
+
+	private static int pow5(int n) {
+		int p = 1;
+		for(int i = 0; i < n; i++) p *= 5;
+		return p;
+	}
+
+	private static int digitSum(int base5) {
+		int sum = 0;
+		for(; base5 > 0; base5 /= 5) sum += base5 % 5;
+		return sum;
+	}
+
+	/**
+	 * The contribution of a card to the rank key of a hand
+	 * @param card card index between 0 and 51
+	 * @return the rank key of the card
+	 */
+	public static int rankKey(int card) {
+		return CARD_KEYS[card];
+	}
+
+	/**
+	 * The rank key of a set of cards
+	 * @param cardSet the cards, see {@link CardSet}
+	 * @return the sum of the rank keys of the cards
+	 */
+	public static int rankKey(long cardSet) {
+		int key = 0;
+		for(long s = cardSet; s != 0; s &= s - 1) {
+			key += CARD_KEYS[Long.numberOfTrailingZeros(s)];
+		}
+		return key;
+	}
+
+	/**
+	 * Rank a hand given its rank key and card mask. Both are sums over the
+	 * cards of the hand, so they can be kept up to date while cards are
+	 * added and removed.
+	 *
+	 * @param rankKey sum of {@link #rankKey(int)} over the cards
+	 * @param mask card mask, bit i set for card index i
+	 * @return the rank, as returned by {@link Hand#rankHand(Hand)}
+	 */
+	public static int rank(int rankKey, long mask) {
+		int suitMask = (int) mask & RANK_MASK;
+		if(Integer.bitCount(suitMask) >= 5) return FLUSH_RANKS[suitMask];
+		suitMask = (int) (mask >>> Card.NUM_RANKS) & RANK_MASK;
+		if(Integer.bitCount(suitMask) >= 5) return FLUSH_RANKS[suitMask];
+		suitMask = (int) (mask >>> (2 * Card.NUM_RANKS)) & RANK_MASK;
+		if(Integer.bitCount(suitMask) >= 5) return FLUSH_RANKS[suitMask];
+		suitMask = (int) (mask >>> (3 * Card.NUM_RANKS)) & RANK_MASK;
+		if(Integer.bitCount(suitMask) >= 5) return FLUSH_RANKS[suitMask];
+		return rankNoFlush(rankKey);
+	}
+
+	/**
+	 * Rank of a hand known not to be a flush, from its rank key alone
+	 * @param rankKey sum of {@link #rankKey(int)} over the cards
+	 * @return the rank
+	 */
+	static int rankNoFlush(int rankKey) {
+		return RANKS[LOW_OFFSET[LOW_INDEX[rankKey & LOW_MASK]] +
+		             HIGH_INDEX[rankKey >>> LOW_BITS]];
+	}
+
+	/**
+	 * Rank of a flush of five to seven cards
+	 * @param rankMask the ranks of the flush suit, bit r set for rank r
+	 * @return the rank
+	 */
+	static int rankFlush(int rankMask) {
+		return FLUSH_RANKS[rankMask];
+	}
+
+	/**
+	 * Rank a five card hand
+	 * @return the rank
+	 */
+	public static int rank(int c1, int c2, int c3, int c4, int c5) {
+		return rank(CARD_KEYS[c1] + CARD_KEYS[c2] + CARD_KEYS[c3] +
+					CARD_KEYS[c4] + CARD_KEYS[c5],
+					(1L << c1) | (1L << c2) | (1L << c3) | (1L << c4) |
+					(1L << c5));
+	}
+
+	/**
+	 * Rank a six card hand
+	 * @return the rank
+	 */
+	public static int rank(int c1, int c2, int c3, int c4, int c5, int c6) {
+		return rank(CARD_KEYS[c1] + CARD_KEYS[c2] + CARD_KEYS[c3] +
+					CARD_KEYS[c4] + CARD_KEYS[c5] + CARD_KEYS[c6],
+					(1L << c1) | (1L << c2) | (1L << c3) | (1L << c4) |
+					(1L << c5) | (1L << c6));
+	}
+
+	/**
+	 * Rank a seven card hand
+	 * @return the rank
+	 */
+	public static int rank(int c1, int c2, int c3, int c4, int c5, int c6,
+						   int c7) {
+		return rank(CARD_KEYS[c1] + CARD_KEYS[c2] + CARD_KEYS[c3] +
+					CARD_KEYS[c4] + CARD_KEYS[c5] + CARD_KEYS[c6] +
+					CARD_KEYS[c7],
+					(1L << c1) | (1L << c2) | (1L << c3) | (1L << c4) |
+					(1L << c5) | (1L << c6) | (1L << c7));
+	}
+
+	/**
+	 * Rank up to seven cards stored in an array
+	 *
+	 * @param cards array of card indices
+	 * @param offset position of the first card
+	 * @param length number of cards
+	 * @return the rank
+	 */
+	public static int rank(int[] cards, int offset, int length) {
+		int key = 0;
+		long mask = 0L;
+		for(int i = offset; i < offset + length; i++) {
+			key += CARD_KEYS[cards[i]];
+			mask |= 1L << cards[i];
+		}
+		return rank(key, mask);
+	}
+
+	/**
+	 * Rank a set of up to seven cards
+	 * @param cardSet the cards, see {@link CardSet}
+	 * @return the rank
+	 */
+	public static int rank(long cardSet) {
+		return rank(rankKey(cardSet), cardSet);
+	}
+
+	/**
+	 * Rank a hand
+	 * @param hand the hand
+	 * @return the rank
+	 */
+	public static int rank(Hand hand) {
+		int key = 0;
+		long mask = 0L;
+		for(int i = 0; i < hand.getNumOfCards(); i++) {
+			int index = hand.getCardIndex(i);
+			key += CARD_KEYS[index];
+			mask |= 1L << index;
+		}
+		return rank(key, mask);
+	}
+
+	public static void main(String[] args) {
+		Hand hand = new Hand("7c8sAhKh7d2hQh");
+		System.out.println("Rank " + hand + " " + rank(hand) +
+						   " (reference " + Hand.rankHand(hand) + ")");
+		// Benchmark against the reference evaluator
+		Deck deck = new Deck();
+		int runs = 10000000;
+		int[][] hands = new int[1000][Hand.MAX_CARDS];
+		for(int i = 0; i < hands.length; i++) {
+			deck.shuffle();
+			for(int j = 0; j < Hand.MAX_CARDS; j++) {
+				hands[i][j] = deck.getCard(j).getIndex();
+			}
+		}
+		long sum = 0;
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < runs; i++) {
+			int[] c = hands[i % hands.length];
+			sum += rank(c[0], c[1], c[2], c[3], c[4], c[5], c[6]);
+		}
+		long end = System.currentTimeMillis();
+		System.out.println("Table (ns/hand): " +
+						   ((end - start) * 1e6 / runs) + " " + (sum & 1));
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Maps hole and board cards to their suit isomorphism class. Permuting the
+ * suits of a situation does not change its hand strength or potential, so
+ * e.g. there are only 1,755 strategically distinct flops.
+ *
+ * Every suit is described by a signature made of the ranks it has in the
+ * hole and the ranks it has on the board. The signatures are a suit
+ * invariant, so sorting them and giving the suits new names in that order
+ * yields the same cards for every member of a class. The canonical hole
+ * and board cards are packed in a single long, the index of the class:
+ * the board mask in the low 52 bits and the two hole card indices in six
+ * bits each above it.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class HandIndexer {
+
+	private final static int RANK_MASK = (1 << Card.NUM_RANKS) - 1;
+
+	private final static int HOLE_SHIFT = Card.NUM_CARDS;
+
+	private final static int CARD_BITS = 6;
+
+	private final static long CARD_MASK = (1L << CARD_BITS) - 1;
+
+	private HandIndexer() {
+	}
+
+	/**
+	 * The isomorphism class of hole and board cards
+	 *
+	 * @param holeCards exactly two cards, see {@link CardSet}
+	 * @param boardCards community cards, see {@link CardSet}
+	 * @return the class index
+	 */
+	public static long index(long holeCards, long boardCards) {
+		long s0 = signature(holeCards, boardCards, Card.CLUBS);
+		long s1 = signature(holeCards, boardCards, Card.DIAMONDS);
+		long s2 = signature(holeCards, boardCards, Card.HEARTS);
+		long s3 = signature(holeCards, boardCards, Card.SPADES);
+		long t;
+		// Sorting network, largest signature first
+		if(s0 < s1) { t = s0; s0 = s1; s1 = t; }
+		if(s2 < s3) { t = s2; s2 = s3; s3 = t; }
+		if(s0 < s2) { t = s0; s0 = s2; s2 = t; }
+		if(s1 < s3) { t = s1; s1 = s3; s3 = t; }
+		if(s1 < s2) { t = s1; s1 = s2; s2 = t; }
+		long hole = ((s0 >>> Card.NUM_RANKS) & RANK_MASK) |
+					((s1 >>> Card.NUM_RANKS) & RANK_MASK) << Card.NUM_RANKS |
+					((s2 >>> Card.NUM_RANKS) & RANK_MASK) << (2 * Card.NUM_RANKS) |
+					((s3 >>> Card.NUM_RANKS) & RANK_MASK) << (3 * Card.NUM_RANKS);
+		long board = (s0 & RANK_MASK) |
+					 (s1 & RANK_MASK) << Card.NUM_RANKS |
+					 (s2 & RANK_MASK) << (2 * Card.NUM_RANKS) |
+					 (s3 & RANK_MASK) << (3 * Card.NUM_RANKS);
+		long low = CardSet.first(hole);
+		long high = CardSet.first(CardSet.removeFirst(hole));
+		return board | (low << HOLE_SHIFT) | (high << (HOLE_SHIFT + CARD_BITS));
+	}
+
+	/**
+	 * The canonical member of the isomorphism class of a set of cards dealt
+	 * in a single round, e.g. a flop
+	 *
+	 * @param cards the cards, see {@link CardSet}
+	 * @return the canonical cards
+	 */
+	public static long canonicalize(long cards) {
+		return index(CardSet.EMPTY, cards) & CardSet.FULL;
+	}
+
+	/**
+	 * The canonical hole cards of a class
+	 * @param index the class index
+	 * @return the hole cards, see {@link CardSet}
+	 */
+	public static long holeCards(long index) {
+		return CardSet.of((int) ((index >>> HOLE_SHIFT) & CARD_MASK)) |
+			   CardSet.of((int) ((index >>> (HOLE_SHIFT + CARD_BITS)) & CARD_MASK));
+	}
+
+	/**
+	 * The canonical board cards of a class
+	 * @param index the class index
+	 * @return the board cards, see {@link CardSet}
+	 */
+	public static long boardCards(long index) {
+		return index & CardSet.FULL;
+	}
+
+	private static long signature(long holeCards, long boardCards, int suit) {
+		int shift = suit * Card.NUM_RANKS;
+		return ((holeCards >>> shift) & RANK_MASK) << Card.NUM_RANKS |
+			   ((boardCards >>> shift) & RANK_MASK);
+	}
+
+	public static void main(String[] args) {
+		Set<Long> flops = new HashSet<Long>();
+		Set<Long> flopHands = new HashSet<Long>();
+		for(int i = 0; i < Card.NUM_CARDS; i++) {
+			for(int j = i + 1; j < Card.NUM_CARDS; j++) {
+				for(int k = j + 1; k < Card.NUM_CARDS; k++) {
+					long flop = CardSet.of(i, j, k);
+					flops.add(canonicalize(flop));
+					long deck = CardSet.FULL & ~flop;
+					for(long s1 = deck; s1 != 0; s1 = CardSet.removeFirst(s1)) {
+						for(long s2 = CardSet.removeFirst(s1); s2 != 0;
+								s2 = CardSet.removeFirst(s2)) {
+							long hole = CardSet.of(CardSet.first(s1)) |
+										CardSet.of(CardSet.first(s2));
+							flopHands.add(index(hole, flop));
+						}
+					}
+				}
+			}
+		}
+		System.out.println("Distinct flops: " + flops.size());
+		System.out.println("Distinct hole cards and flops: " + flopHands.size());
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+/**
+ * Counts the hand potential transitions of a hand. {@link #reset} ranks my
+ * hand now and after every runout and lists the opponent hole cards, both
+ * as colexicographic subsets of the live cards from a
+ * {@link CardEnumerator}, so one and two cards to come take the same path.
+ * {@link #count(int, int, int[][], int[])} then counts any range of the
+ * opponent hands into matrices of the caller, which is how the
+ * {@link HandPotentialTask} leaves share one ranking of my hand.
+ *
+ * The arrays are kept from one hand to the next, so code that evaluates
+ * many hands on one thread of a pool already, such as the chunk tasks of
+ * {@link HistoryEvaluator}, counts without forking and without allocating.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+final class HandPotentialCounter {
+
+	/** Most runouts or opponent hands, two out of the cards off an empty board */
+	private final static int MAX_SUBSETS =
+		(int) CardEnumerator.binomial(Card.NUM_CARDS - 2, 2);
+
+	/** Counts by relative rank now and at the showdown */
+	final int[][] hp = new int[Hand.NUM_REL_RANKS][Hand.NUM_REL_RANKS];
+
+	/** Counts by relative rank now */
+	final int[] hpTotal = new int[Hand.NUM_REL_RANKS];
+
+	private final CardEnumerator deck = new CardEnumerator(CardSet.EMPTY);
+
+	/** Cards to come, in colexicographic order */
+	private final long[] runouts = new long[MAX_SUBSETS];
+
+	/** Rank key of each runout */
+	private final int[] runoutKeys = new int[MAX_SUBSETS];
+
+	/** Rank of my final hand after each runout */
+	private final int[] myBest = new int[MAX_SUBSETS];
+
+	/** Opponent hole cards, in colexicographic order */
+	private final long[] opponents = new long[MAX_SUBSETS];
+
+	/** Rank key of each opponent hand */
+	private final int[] opponentKeys = new int[MAX_SUBSETS];
+
+	private int numRunouts;
+
+	private int numOpponents;
+
+	private long boardCards;
+
+	private int boardKey;
+
+	private int myRank;
+
+	/**
+	 * Count the transitions of a hand, replacing the previous counts
+	 *
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards, see {@link CardSet}
+	 * @param ahead number of cards to come, 1 or 2
+	 */
+	void count(long holeCards, long boardCards, int ahead) {
+		reset(holeCards, boardCards, ahead);
+		for(int i = 0; i < Hand.NUM_REL_RANKS; i++) {
+			hpTotal[i] = 0;
+			for(int j = 0; j < Hand.NUM_REL_RANKS; j++) {
+				hp[i][j] = 0;
+			}
+		}
+		count(0, numOpponents, hp, hpTotal);
+	}
+
+	/**
+	 * Rank my hand now and after every runout, and list the opponent hands
+	 *
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards, see {@link CardSet}
+	 * @param ahead number of cards to come, 1 or 2
+	 */
+	void reset(long holeCards, long boardCards, int ahead) {
+		if(ahead < 1 || ahead > 2 ||
+		   CardSet.size(boardCards) + ahead > Hand.MAX_CARDS - 2) {
+			throw new IllegalArgumentException("Cannot deal " + ahead +
+				" more cards to " + CardSet.toString(boardCards));
+		}
+		this.boardCards = boardCards;
+		this.boardKey = HandEvaluator.rankKey(boardCards);
+		int myKey = boardKey + HandEvaluator.rankKey(holeCards);
+		long myMask = holeCards | boardCards;
+		this.myRank = HandEvaluator.rank(myKey, myMask);
+		deck.reset(CardSet.FULL & ~myMask);
+		numRunouts = deck.subsets(ahead, runouts, runoutKeys);
+		for(int r = 0; r < numRunouts; r++) {
+			myBest[r] = HandEvaluator.rank(myKey + runoutKeys[r],
+										   myMask | runouts[r]);
+		}
+		numOpponents = deck.subsets(2, opponents, opponentKeys);
+	}
+
+	/**
+	 * Number of opponent hands of the current hand
+	 * @return the hole card pairs left in the deck
+	 */
+	int opponents() {
+		return numOpponents;
+	}
+
+	/**
+	 * Number of runouts of the current hand
+	 * @return the subsets of the cards to come left in the deck
+	 */
+	int runouts() {
+		return numRunouts;
+	}
+
+	/**
+	 * Add the transitions of a range of the opponent hands of the current
+	 * hand. Only reads the state of the counter, so several threads can
+	 * count disjoint ranges into their own matrices.
+	 *
+	 * @param from first opponent hand, inclusive
+	 * @param to last opponent hand, exclusive
+	 * @param hp receives the counts by relative rank now and at the showdown
+	 * @param hpTotal receives the counts by relative rank now
+	 */
+	void count(int from, int to, int[][] hp, int[] hpTotal) {
+		for(int o = from; o < to; o++) {
+			long opp = opponents[o];
+			int oppKey = boardKey + opponentKeys[o];
+			long oppMask = boardCards | opp;
+			int oppRank = HandEvaluator.rank(oppKey, oppMask);
+			int index;
+			if(myRank > oppRank) index = Hand.BETTER;
+			else if(myRank == oppRank) index = Hand.TIED;
+			else index = Hand.WORSE;
+			int[] row = hp[index];
+			int counted = 0;
+			for(int r = 0; r < numRunouts; r++) {
+				if((runouts[r] & opp) != 0) continue;
+				int ourBest = myBest[r];
+				int oppBest = HandEvaluator.rank(oppKey + runoutKeys[r],
+												 oppMask | runouts[r]);
+				if(ourBest > oppBest) row[Hand.BETTER]++;
+				else if(ourBest == oppBest) row[Hand.TIED]++;
+				else row[Hand.WORSE]++;
+				counted++;
+			}
+			hpTotal[index] += counted;
+		}
+	}
+
+}
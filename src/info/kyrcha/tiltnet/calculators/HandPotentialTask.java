@@ -0,0 +1,69 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task counting the hand potential transitions for a range of
+ * opponent hole cards. A task covering more than {@link #LEAF_OPPONENTS}
+ * opponent hands is split in two halves and the matrices of the halves are
+ * summed. The ranks of my hand for every runout are computed once by the
+ * {@link HandPotentialCounter} of the root task, and the leaves count their
+ * opponent hands with it into their own matrices.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+final class HandPotentialTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Most opponent hands counted by one task without splitting */
+	private static final int LEAF_OPPONENTS = 32;
+
+	/** Counts by relative rank now and at the showdown */
+	final int[][] hp = new int[Hand.NUM_REL_RANKS][Hand.NUM_REL_RANKS];
+
+	/** Counts by relative rank now */
+	final int[] hpTotal = new int[Hand.NUM_REL_RANKS];
+
+	/** My hand ranked for every runout, shared by all the tasks */
+	final HandPotentialCounter counter;
+
+	private final int from;
+
+	private final int to;
+
+	HandPotentialTask(long holeCards, long boardCards, int ahead) {
+		this.counter = new HandPotentialCounter();
+		counter.reset(holeCards, boardCards, ahead);
+		this.from = 0;
+		this.to = counter.opponents();
+	}
+
+	private HandPotentialTask(HandPotentialTask parent, int from, int to) {
+		this.counter = parent.counter;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+		if(to - from > LEAF_OPPONENTS) {
+			int middle = (from + to) >>> 1;
+			HandPotentialTask left = new HandPotentialTask(this, from, middle);
+			HandPotentialTask right = new HandPotentialTask(this, middle, to);
+			invokeAll(left, right);
+			for(int i = 0; i < Hand.NUM_REL_RANKS; i++) {
+				hpTotal[i] = left.hpTotal[i] + right.hpTotal[i];
+				for(int j = 0; j < Hand.NUM_REL_RANKS; j++) {
+					hp[i][j] = left.hp[i][j] + right.hp[i][j];
+				}
+			}
+		} else {
+			counter.count(from, to, hp, hpTotal);
+		}
+	}
+
+}
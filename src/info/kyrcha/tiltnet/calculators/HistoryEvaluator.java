@@ -0,0 +1,362 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Evaluates hand history files of any size with one hand per line:
+ * <pre>
+ * AhKd 2c7hTs 3
+ * </pre>
+ * i.e. the hole cards, the board (three to five cards) and the number of
+ * players, separated by spaces or tabs. For every line the output file gets
+ * a line with the rank of the hand, as returned by
+ * {@link Hand#rankHand(Hand)}, and the hand strength against the other
+ * players; optionally followed by the positive and negative potential
+ * (heads-up, zero on the river). Lines that cannot be parsed give a line
+ * with <code>error</code>, so output line n always belongs to input line n.
+ *
+ * The input is memory mapped a chunk at a time. Chunks end on a line
+ * boundary and are evaluated by the tasks of a fork/join pool, which read
+ * cards straight from the mapping with the {@link CardCodec} tables and
+ * format numbers into a byte array, so parsing and formatting create no
+ * object per line. The potential is counted serially within the task, in
+ * a {@link HandPotentialCounter} kept for the whole chunk: the routine the
+ * fork/join {@link Hand#parallelHandPotential(long, long, int,
+ * ForkJoinPool)} leaves run, without forking, so
+ * heads-up lines allocate nothing either; the multiway hand strength of lines with
+ * more than two players allocates its own working arrays. The results are
+ * written in input order, and at most a fixed number of chunks are in
+ * flight, so memory use does not depend on the size of the file.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public class HistoryEvaluator {
+
+	/** Default chunk size in bytes */
+	public final static int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+	/** Output of a line that cannot be parsed */
+	private final static byte[] ERROR = {'e', 'r', 'r', 'o', 'r'};
+
+	/** Output values have six decimal digits */
+	private final static int FRACTION_SCALE = 1000000;
+
+	private final boolean potential;
+
+	private final int chunkSize;
+
+	private final int maxInFlight;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Evaluator with the default chunk size on the common pool
+	 * @param potential whether to compute the hand potential
+	 */
+	public HistoryEvaluator(boolean potential) {
+		this(potential, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Evaluator keeping at most two chunks per thread of the pool in flight
+	 *
+	 * @param potential whether to compute the hand potential
+	 * @param chunkSize largest chunk in bytes, which bounds the line length
+	 * @param pool the pool evaluating the chunks
+	 */
+	public HistoryEvaluator(boolean potential, int chunkSize, ForkJoinPool pool) {
+		if(chunkSize < 1) {
+			throw new IllegalArgumentException("Bad chunk size: " + chunkSize);
+		}
+		this.potential = potential;
+		this.chunkSize = chunkSize;
+		this.maxInFlight = 2 * pool.getParallelism();
+		this.pool = pool;
+	}
+
+	/**
+	 * Evaluate a hand history file
+	 *
+	 * @param input the hand histories
+	 * @param output the file to write, replaced if it exists
+	 * @return the number of lines evaluated
+	 * @throws IOException if a file cannot be read or written, or a line is
+	 * longer than the chunk size
+	 */
+	public long evaluate(Path input, Path output) throws IOException {
+		long lines = 0;
+		try(FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			long size = in.size();
+			ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+			for(long position = 0; position < size; ) {
+				long start = position;
+				MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY,
+					start, Math.min(chunkSize, size - start));
+				int end = buffer.limit();
+				if(start + end < size) {
+					// Cut after the last complete line
+					while(end > 0 && buffer.get(end - 1) != '\n') end--;
+					if(end == 0) {
+						throw new IOException("Line longer than " + chunkSize +
+											  " bytes at byte " + start);
+					}
+				}
+				int length = end;
+				inFlight.add(pool.submit(() -> evaluate(buffer, length, start)));
+				position += end;
+				if(inFlight.size() >= maxInFlight) {
+					lines += write(inFlight.poll().join(), out);
+				}
+			}
+			while(!inFlight.isEmpty()) {
+				lines += write(inFlight.poll().join(), out);
+			}
+		}
+		return lines;
+	}
+
+	private static int write(Chunk chunk, FileChannel out) throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap(chunk.bytes, 0, chunk.length);
+		while(bytes.hasRemaining()) {
+			out.write(bytes);
+		}
+		return chunk.lines;
+	}
+
+	/**
+	 * Evaluated lines of a chunk, formatted
+	 */
+	private static final class Chunk {
+
+		byte[] bytes;
+
+		int length;
+
+		int lines;
+
+		Chunk(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		void put(int b) {
+			if(length == bytes.length) {
+				byte[] grown = new byte[2 * bytes.length];
+				System.arraycopy(bytes, 0, grown, 0, length);
+				bytes = grown;
+			}
+			bytes[length++] = (byte) b;
+		}
+
+		void put(byte[] b) {
+			for(byte x : b) put(x);
+		}
+
+		void putInt(int value) {
+			if(value >= 10) putInt(value / 10);
+			put('0' + value % 10);
+		}
+
+		/** A value in [0,1] with a fixed number of digits */
+		void putFraction(double value) {
+			long scaled = Math.round(value * FRACTION_SCALE);
+			put('0' + (int) (scaled / FRACTION_SCALE));
+			put('.');
+			for(int scale = FRACTION_SCALE / 10; scale > 0; scale /= 10) {
+				put('0' + (int) (scaled / scale % 10));
+			}
+		}
+
+	}
+
+	/**
+	 * Evaluate the lines of a chunk
+	 *
+	 * @param buffer the chunk
+	 * @param length bytes of complete lines
+	 * @param position position of the chunk in the file, which seeds the
+	 * sampled multiway hand strength so results do not depend on scheduling
+	 */
+	private Chunk evaluate(ByteBuffer buffer, int length, long position) {
+		// Output lines are about as long as input lines
+		Chunk chunk = new Chunk(Math.max(64, length + length / 2));
+		HandPotentialCounter counter = potential ? new HandPotentialCounter() : null;
+		double[] strengths = new double[Hand.NUM_STRENGTHS];
+		int start = 0;
+		while(start < length) {
+			int end = start;
+			while(end < length && buffer.get(end) != '\n') end++;
+			int lineEnd = end;
+			if(lineEnd > start && buffer.get(lineEnd - 1) == '\r') lineEnd--;
+			evaluateLine(buffer, start, lineEnd, position + start, counter,
+						 strengths, chunk);
+			chunk.put('\n');
+			chunk.lines++;
+			start = end + 1;
+		}
+		return chunk;
+	}
+
+	private void evaluateLine(ByteBuffer buffer, int from, int to, long seed,
+							  HandPotentialCounter counter, double[] strengths,
+							  Chunk chunk) {
+		// Hole cards
+		int start = skipBlanks(buffer, from, to);
+		int end = skipToken(buffer, start, to);
+		long holeCards = parse(buffer, start, end);
+		// Board
+		start = skipBlanks(buffer, end, to);
+		end = skipToken(buffer, start, to);
+		long boardCards = parse(buffer, start, end);
+		// Players
+		start = skipBlanks(buffer, end, to);
+		end = skipToken(buffer, start, to);
+		int players = parsePlayers(buffer, start, end);
+		int boardSize = CardSet.size(boardCards);
+		if(holeCards < 0 || boardCards < 0 || players < 0 ||
+		   skipBlanks(buffer, end, to) != to ||
+		   CardSet.size(holeCards) != 2 || boardSize < 3 || boardSize > 5 ||
+		   (holeCards & boardCards) != 0 ||
+		   2 * players + boardSize > Card.NUM_CARDS) {
+			chunk.put(ERROR);
+			return;
+		}
+		int rank = HandEvaluator.rank(holeCards | boardCards);
+		boolean counted = potential && boardSize < 5;
+		if(counted) {
+			counter.count(holeCards, boardCards, 5 - boardSize);
+			Hand.strengths(counter.hp, counter.hpTotal, strengths);
+		}
+		double strength;
+		if(players > 2) {
+			int opponents = players - 1;
+			double[] multiway = opponents <= MultiwayStrength.EXACT_OPPONENTS ?
+				MultiwayStrength.exact(holeCards, boardCards, opponents) :
+				MultiwayStrength.sample(holeCards, boardCards, opponents,
+					MultiwayStrength.DEFAULT_SAMPLES, new SplittableRandom(seed));
+			strength = multiway[Hand.BETTER] + multiway[Hand.TIED] / 2;
+		} else if(counted) {
+			strength = strengths[Hand.HAND_STRENGTH];
+		} else {
+			strength = Hand.handStrength(holeCards, boardCards);
+		}
+		chunk.putInt(rank);
+		chunk.put('\t');
+		chunk.putFraction(strength);
+		if(potential) {
+			chunk.put('\t');
+			chunk.putFraction(counted ? strengths[Hand.POSITIVE_POTENTIAL] : 0);
+			chunk.put('\t');
+			chunk.putFraction(counted ? strengths[Hand.NEGATIVE_POTENTIAL] : 0);
+		}
+	}
+
+	private static boolean isBlank(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private static int skipBlanks(ByteBuffer buffer, int from, int to) {
+		while(from < to && isBlank(buffer.get(from))) from++;
+		return from;
+	}
+
+	private static int skipToken(ByteBuffer buffer, int from, int to) {
+		while(from < to && !isBlank(buffer.get(from))) from++;
+		return from;
+	}
+
+	/**
+	 * The set of the cards of a token, or a negative {@link CardCodec} error
+	 */
+	private static long parse(ByteBuffer buffer, int from, int to) {
+		if(from == to || ((to - from) & 1) != 0) return CardCodec.MALFORMED;
+		long set = CardSet.EMPTY;
+		for(int i = from; i < to; i += 2) {
+			int card = CardCodec.parseCard((char) (buffer.get(i) & 0xFF),
+										   (char) (buffer.get(i + 1) & 0xFF));
+			if(card < 0) return CardCodec.MALFORMED;
+			if(CardSet.contains(set, card)) return CardCodec.DUPLICATE;
+			set |= CardSet.of(card);
+		}
+		return set;
+	}
+
+	/**
+	 * The number of players of a token, or -1 if it is not at least two
+	 */
+	private static int parsePlayers(ByteBuffer buffer, int from, int to) {
+		if(from == to || to - from > 2) return -1;
+		int players = 0;
+		for(int i = from; i < to; i++) {
+			int digit = buffer.get(i) - '0';
+			if(digit < 0 || digit > 9) return -1;
+			players = 10 * players + digit;
+		}
+		return players >= 2 ? players : -1;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length >= 2) {
+			boolean potential = args.length > 2 &&
+								Boolean.parseBoolean(args[2]);
+			long start = System.currentTimeMillis();
+			long lines = new HistoryEvaluator(potential).evaluate(
+				Paths.get(args[0]), Paths.get(args[1]));
+			long end = System.currentTimeMillis();
+			System.out.println("Evaluated " + lines + " hands in " +
+							   ((end - start) / 1000.0) + " sec");
+			return;
+		}
+		// Example: random heads-up hands, then a few with their potential
+		Path input = Files.createTempFile("histories", ".txt");
+		Path output = Files.createTempFile("histories", ".out");
+		Deck deck = new Deck(1);
+		int hands = 100000;
+		try(BufferedWriter writer = Files.newBufferedWriter(input)) {
+			for(int i = 0; i < hands; i++) {
+				long holeCards = deck.deal(2);
+				deck.removeCards(holeCards);
+				long boardCards = deck.deal(3 + i % 3);
+				writer.write(CardSet.toString(holeCards) + " " +
+							 CardSet.toString(boardCards) + " 2\n");
+				deck.putBack(holeCards);
+			}
+			writer.write("AhAh 2c3c4c 2\n");
+		}
+		HistoryEvaluator evaluator = new HistoryEvaluator(false, 1 << 16,
+			ForkJoinPool.commonPool());
+		long start = System.currentTimeMillis();
+		long lines = evaluator.evaluate(input, output);
+		long end = System.currentTimeMillis();
+		System.out.println("Evaluated " + lines + " hands in " + (end - start) +
+						   " ms (" + (int) (lines * 1000.0 / Math.max(1, end - start)) +
+						   " hands/sec)");
+		try(BufferedWriter writer = Files.newBufferedWriter(input)) {
+			writer.write("AhKd 2c7hTs 2\nAhKd 2c7hTs 4\nAhKd 2c7hTsQd 2\n" +
+						 "AhKd 2c7hTsQdJc 2\nAhKd 2c7hTs\n");
+		}
+		new HistoryEvaluator(true).evaluate(input, output);
+		for(String line : Files.readAllLines(output)) {
+			System.out.println(line);
+		}
+		Files.delete(input);
+		Files.delete(output);
+	}
+
+}
@@ -0,0 +1,194 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * K-means clustering of histograms stored one after the other in a flat
+ * float array, with the squared Euclidean distance or the earth mover's
+ * distance. Between one dimensional histograms of equal mass the earth
+ * mover's distance is the L1 distance of their cumulative sums, which is
+ * computed on the fly. Centroids are the means of their members in both
+ * cases (the mean of the cumulative sums is the cumulative sum of the
+ * mean), as is usual for clustering hand strength distributions.
+ *
+ * Centroids are seeded with k-means++ from a seeded generator, and the
+ * assignment step runs in parallel, so results are reproducible.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class KMeans {
+
+	/** Distance between histograms */
+	public enum Distance {
+		/** Squared Euclidean distance */
+		L2,
+		/** Earth mover's distance of one dimensional histograms */
+		EMD
+	}
+
+	private final int dimension;
+
+	private final Distance distance;
+
+	/** The centroids, one after the other */
+	private final float[] centroids;
+
+	private KMeans(int dimension, Distance distance, float[] centroids) {
+		this.dimension = dimension;
+		this.distance = distance;
+		this.centroids = centroids;
+	}
+
+	/**
+	 * Cluster histograms
+	 *
+	 * @param points the histograms, dimension values each
+	 * @param dimension number of values per histogram
+	 * @param k number of clusters
+	 * @param distance the distance
+	 * @param iterations maximum number of assignment and update steps
+	 * @param seed seed of the centroid selection
+	 * @return the clustering
+	 */
+	public static KMeans fit(float[] points, int dimension, int k,
+							 Distance distance, int iterations, long seed) {
+		int n = points.length / dimension;
+		if(k < 1 || k > n) {
+			throw new IllegalArgumentException("Cannot make " + k +
+				" clusters out of " + n + " points");
+		}
+		KMeans means = new KMeans(dimension, distance,
+								  new float[k * dimension]);
+		means.seed(points, n, k, new SplittableRandom(seed));
+		int[] assignments = new int[n];
+		Arrays.fill(assignments, -1);
+		for(int iteration = 0; iteration < iterations; iteration++) {
+			int changed = IntStream.range(0, n).parallel().map(p -> {
+				int nearest = means.nearest(points, p * dimension);
+				if(nearest == assignments[p]) return 0;
+				assignments[p] = nearest;
+				return 1;
+			}).sum();
+			if(changed == 0) break;
+			means.update(points, n, k, assignments);
+		}
+		return means;
+	}
+
+	/**
+	 * k-means++: every next centroid is drawn with probability proportional
+	 * to the distance to the nearest centroid chosen so far
+	 */
+	private void seed(float[] points, int n, int k, SplittableRandom random) {
+		double[] nearest = new double[n];
+		int first = random.nextInt(n);
+		System.arraycopy(points, first * dimension, centroids, 0, dimension);
+		for(int c = 1; c < k; c++) {
+			int last = c - 1;
+			double total = IntStream.range(0, n).parallel().mapToDouble(p -> {
+				double d = distance(points, p * dimension, last);
+				if(last == 0 || d < nearest[p]) nearest[p] = d;
+				return nearest[p];
+			}).sum();
+			int chosen = random.nextInt(n);
+			if(total > 0) {
+				double target = random.nextDouble() * total;
+				for(int p = 0; p < n; p++) {
+					target -= nearest[p];
+					if(target < 0) {
+						chosen = p;
+						break;
+					}
+				}
+			}
+			System.arraycopy(points, chosen * dimension, centroids,
+							 c * dimension, dimension);
+		}
+	}
+
+	/**
+	 * Moves every centroid to the mean of its points; centroids without
+	 * points stay where they are
+	 */
+	private void update(float[] points, int n, int k, int[] assignments) {
+		double[] sums = new double[k * dimension];
+		int[] counts = new int[k];
+		for(int p = 0; p < n; p++) {
+			int c = assignments[p];
+			counts[c]++;
+			for(int i = 0; i < dimension; i++) {
+				sums[c * dimension + i] += points[p * dimension + i];
+			}
+		}
+		for(int c = 0; c < k; c++) {
+			if(counts[c] == 0) continue;
+			for(int i = 0; i < dimension; i++) {
+				centroids[c * dimension + i] =
+					(float) (sums[c * dimension + i] / counts[c]);
+			}
+		}
+	}
+
+	/**
+	 * The cluster nearest to a histogram
+	 *
+	 * @param points array holding the histogram
+	 * @param offset position of the histogram
+	 * @return the cluster
+	 */
+	public int nearest(float[] points, int offset) {
+		int best = 0;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		for(int c = 0; c < getK(); c++) {
+			double d = distance(points, offset, c);
+			if(d < bestDistance) {
+				bestDistance = d;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	private double distance(float[] points, int offset, int centroid) {
+		int base = centroid * dimension;
+		double d = 0;
+		if(distance == Distance.L2) {
+			for(int i = 0; i < dimension; i++) {
+				double diff = points[offset + i] - centroids[base + i];
+				d += diff * diff;
+			}
+		} else {
+			double cumulative = 0;
+			for(int i = 0; i < dimension; i++) {
+				cumulative += points[offset + i] - centroids[base + i];
+				d += Math.abs(cumulative);
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Number of clusters
+	 * @return k
+	 */
+	public int getK() {
+		return centroids.length / dimension;
+	}
+
+	/**
+	 * The centroid of a cluster
+	 * @param cluster the cluster
+	 * @return a copy of the centroid
+	 */
+	public float[] getCentroid(int cluster) {
+		float[] centroid = new float[dimension];
+		System.arraycopy(centroids, cluster * dimension, centroid, 0, dimension);
+		return centroid;
+	}
+
+}
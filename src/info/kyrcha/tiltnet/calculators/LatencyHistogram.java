@@ -0,0 +1,127 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds with a bounded relative
+ * error, in the manner of HdrHistogram: values below 16 have a bucket each
+ * and every power of two above is split in 16 buckets, so a percentile is
+ * reported at most 1/16 (6.25%) above the true value. Recording is a
+ * couple of shifts and an atomic increment, and the whole range up to
+ * about 18 minutes takes 37 * 16 counters.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class LatencyHistogram {
+
+	private final static int SUB_BUCKET_BITS = 4;
+
+	private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** Largest value kept apart, larger values count as it */
+	private final static long MAX_VALUE = (1L << 40) - 1;
+
+	private final static int NUM_BUCKETS = index(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	private static int index(long value) {
+		if(value < SUB_BUCKETS) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/** Largest value of a bucket */
+	private static long highest(int index) {
+		if(index < SUB_BUCKETS) return index;
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Record a latency
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Number of latencies recorded
+	 * @return the count
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Mean latency
+	 * @return the mean in nanoseconds, 0 if none was recorded
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * Largest latency
+	 * @return the maximum in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * A percentile of the latencies, within the precision of the buckets.
+	 * Recording may go on meanwhile, so this is a snapshot.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return the latency in nanoseconds, 0 if none was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long[] snapshot = new long[NUM_BUCKETS];
+		long total = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if(total == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			seen += snapshot[i];
+			if(seen >= rank) return Math.min(highest(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Forget the latencies recorded so far
+	 */
+	public void reset() {
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+
+}
@@ -0,0 +1,425 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Instrumentation of the public entry points of {@link Hand} and
+ * {@link Heuristics}: the number of calls and of hands ranked by each kind
+ * of call, in striped counters, the latency of every call in a
+ * {@link LatencyHistogram} per call and street, the bytes allocated by the
+ * calling thread, and the hit rates of the registered caches. The bytes
+ * allocated by pool threads are not seen, so the allocation of the calls
+ * run as fork/join tasks (parallelHandPotential, effectiveHandStrength) is
+ * under-reported. Each timed call also commits an {@link EvaluationEvent}
+ * to the flight recorder when a recording has the event enabled.
+ *
+ * Metrics are off unless the system property <code>tiltnet.metrics</code>
+ * is true, and then exposed as the {@link MetricsMXBean}
+ * <code>info.kyrcha.tiltnet:type=Metrics</code>. The instrumented methods
+ * only test {@link #ENABLED}, a constant the JIT compiler folds, so when
+ * metrics are off the instrumentation is removed from the compiled code.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class Metrics implements MetricsMXBean {
+
+	/** System property turning the metrics on when set to true */
+	public final static String PROPERTY = "tiltnet.metrics";
+
+	/** Whether calls are counted and timed */
+	public final static boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+	/** Name of the MBean */
+	public final static String OBJECT_NAME = "info.kyrcha.tiltnet:type=Metrics";
+
+	/**
+	 * Instrumented calls. RANK_HAND is only counted, and counts only the
+	 * direct calls of both rankHand methods: the other calls rank their
+	 * hands with {@link HandEvaluator} and report them as their own
+	 * evaluations when they end, see {@link Probe#end(long)}.
+	 */
+	public enum Call {
+		RANK_HAND, HAND_STRENGTH, HAND_POTENTIAL, EFFECTIVE_STRENGTH,
+		CHEN_FORMULA
+	}
+
+	/** Streets, by number of community cards */
+	public enum Street {
+		PREFLOP, FLOP, TURN, RIVER;
+
+		/**
+		 * The street of a board
+		 * @param boardCards number of community cards
+		 * @return the street, the river for five cards or more
+		 */
+		public static Street of(int boardCards) {
+			if(boardCards < 3) return PREFLOP;
+			if(boardCards == 3) return FLOP;
+			if(boardCards == 4) return TURN;
+			return RIVER;
+		}
+	}
+
+	private final static int CALLS = Call.values().length;
+
+	private final static int STREETS = Street.values().length;
+
+	private final static LongAdder[] calls = adders();
+
+	private final static LongAdder[] evaluations = adders();
+
+	private final static LongAdder[] allocated = adders();
+
+	private final static LatencyHistogram[] latencies =
+		new LatencyHistogram[CALLS * STREETS];
+
+	/** Hits and misses of each registered cache */
+	private final static Map<String, LongSupplier[]> caches =
+		new ConcurrentHashMap<String, LongSupplier[]>();
+
+	/** Counts of the caches at the last reset */
+	private final static Map<String, long[]> cacheBase =
+		new ConcurrentHashMap<String, long[]>();
+
+	/** Allocation counters of the threads, looked up only when enabled */
+	private final static com.sun.management.ThreadMXBean THREADS =
+		ENABLED ? threads() : null;
+
+	private final static Metrics INSTANCE = new Metrics();
+
+	static {
+		for(int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+		if(ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(
+					INSTANCE, new ObjectName(OBJECT_NAME));
+			} catch(JMException e) {
+				// Already registered by another class loader
+			}
+		}
+	}
+
+	private Metrics() {
+	}
+
+	private static LongAdder[] adders() {
+		LongAdder[] adders = new LongAdder[CALLS];
+		for(int i = 0; i < CALLS; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	private static com.sun.management.ThreadMXBean threads() {
+		if(ManagementFactory.getThreadMXBean()
+				instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			if(threads.isThreadAllocatedMemorySupported() &&
+			   threads.isThreadAllocatedMemoryEnabled()) {
+				return threads;
+			}
+		}
+		return null;
+	}
+
+	private static long allocatedBytes() {
+		return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+	}
+
+	/**
+	 * The metrics, the same object as the registered MBean
+	 * @return the metrics
+	 */
+	public static Metrics get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * A timed call in progress, see {@link Metrics#begin(Call, int)}
+	 */
+	public final static class Probe {
+
+		private final Call call;
+
+		private final Street street;
+
+		private final long start;
+
+		private final long startBytes;
+
+		private final EvaluationEvent event;
+
+		private Probe(Call call, Street street) {
+			this.call = call;
+			this.street = street;
+			EvaluationEvent event = new EvaluationEvent();
+			if(event.isEnabled()) {
+				event.begin();
+				this.event = event;
+			} else {
+				this.event = null;
+			}
+			this.startBytes = allocatedBytes();
+			this.start = System.nanoTime();
+		}
+
+		/**
+		 * Ends the call
+		 * @param evaluations number of hands ranked by the call
+		 */
+		public void end(long evaluations) {
+			long nanos = System.nanoTime() - start;
+			long bytes = allocatedBytes() - startBytes;
+			int c = call.ordinal();
+			calls[c].increment();
+			Metrics.evaluations[c].add(evaluations);
+			allocated[c].add(bytes);
+			latencies[c * STREETS + street.ordinal()].record(nanos);
+			if(event != null) {
+				event.end();
+				if(event.shouldCommit()) {
+					event.call = call.name();
+					event.street = street.name();
+					event.evaluations = evaluations;
+					event.allocated = bytes;
+					event.commit();
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Starts timing a call. Callers test {@link #ENABLED} first:
+	 * <pre>
+	 * Metrics.Probe probe = Metrics.ENABLED ?
+	 *     Metrics.begin(Metrics.Call.HAND_STRENGTH, 3) : null;
+	 * ...
+	 * if(probe != null) probe.end(evaluations);
+	 * </pre>
+	 *
+	 * @param call the kind of call
+	 * @param boardCards number of community cards
+	 * @return the probe to end when the call returns
+	 */
+	public static Probe begin(Call call, int boardCards) {
+		return new Probe(call, Street.of(boardCards));
+	}
+
+	/**
+	 * Counts a call too short to be timed
+	 * @param call the kind of call
+	 * @param evaluations number of hands ranked by the call
+	 */
+	public static void count(Call call, long evaluations) {
+		calls[call.ordinal()].increment();
+		Metrics.evaluations[call.ordinal()].add(evaluations);
+	}
+
+	/**
+	 * Registers a cache whose hit rate is reported, replacing a cache
+	 * registered under the same name
+	 *
+	 * @param name the name of the cache
+	 * @param hits number of hits so far
+	 * @param misses number of misses so far
+	 */
+	public static void register(String name, LongSupplier hits,
+								LongSupplier misses) {
+		caches.put(name, new LongSupplier[] {hits, misses});
+		cacheBase.remove(name);
+	}
+
+	/**
+	 * The latencies of a kind of call on a street
+	 * @param call the kind of call
+	 * @param street the street
+	 * @return the histogram, in nanoseconds
+	 */
+	public static LatencyHistogram latencies(Call call, Street street) {
+		return latencies[call.ordinal() * STREETS + street.ordinal()];
+	}
+
+	/**
+	 * Number of calls so far
+	 * @param call the kind of call
+	 * @return the count
+	 */
+	public static long calls(Call call) {
+		return calls[call.ordinal()].sum();
+	}
+
+	/**
+	 * Number of hands ranked so far
+	 * @param call the kind of call
+	 * @return the count
+	 */
+	public static long evaluations(Call call) {
+		return evaluations[call.ordinal()].sum();
+	}
+
+	private static long cacheCount(String name, int which) {
+		LongSupplier[] cache = caches.get(name);
+		if(cache == null) return 0;
+		long[] base = cacheBase.get(name);
+		return cache[which].getAsLong() - (base != null ? base[which] : 0);
+	}
+
+	/**
+	 * Fraction of the lookups of a cache answered from it
+	 * @param name the name of the cache
+	 * @return the hit rate, 0 without lookups
+	 */
+	public static double hitRate(String name) {
+		long hits = cacheCount(name, 0);
+		long lookups = hits + cacheCount(name, 1);
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	private static Map<String, Long> byCall(LongAdder[] adders) {
+		Map<String, Long> map = new TreeMap<String, Long>();
+		for(Call call : Call.values()) {
+			long sum = adders[call.ordinal()].sum();
+			if(sum != 0) map.put(call.name(), sum);
+		}
+		return map;
+	}
+
+	/** Percentile of each histogram with data, 101 for the mean */
+	private static Map<String, Double> byStreet(double percentile) {
+		Map<String, Double> map = new TreeMap<String, Double>();
+		for(Call call : Call.values()) {
+			for(Street street : Street.values()) {
+				LatencyHistogram h = latencies(call, street);
+				if(h.getCount() == 0) continue;
+				double nanos = percentile > 100 ? h.getMean() :
+							   h.getPercentile(percentile);
+				map.put(call.name() + "/" + street.name(), nanos / 1000);
+			}
+		}
+		return map;
+	}
+
+	private static Map<String, Long> byCache(int which) {
+		Map<String, Long> map = new TreeMap<String, Long>();
+		for(String name : caches.keySet()) {
+			map.put(name, cacheCount(name, which));
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getCalls() {
+		return byCall(calls);
+	}
+
+	@Override
+	public Map<String, Long> getEvaluations() {
+		return byCall(evaluations);
+	}
+
+	@Override
+	public Map<String, Long> getAllocatedBytes() {
+		return byCall(allocated);
+	}
+
+	@Override
+	public Map<String, Double> getMeanMicros() {
+		return byStreet(101);
+	}
+
+	@Override
+	public Map<String, Double> getMedianMicros() {
+		return byStreet(50);
+	}
+
+	@Override
+	public Map<String, Double> getP99Micros() {
+		return byStreet(99);
+	}
+
+	@Override
+	public Map<String, Double> getMaxMicros() {
+		return byStreet(100);
+	}
+
+	@Override
+	public Map<String, Long> getCacheHits() {
+		return byCache(0);
+	}
+
+	@Override
+	public Map<String, Long> getCacheMisses() {
+		return byCache(1);
+	}
+
+	@Override
+	public void reset() {
+		for(int i = 0; i < CALLS; i++) {
+			calls[i].reset();
+			evaluations[i].reset();
+			allocated[i].reset();
+		}
+		for(LatencyHistogram h : latencies) {
+			h.reset();
+		}
+		for(Map.Entry<String, LongSupplier[]> e : caches.entrySet()) {
+			LongSupplier[] cache = e.getValue();
+			cacheBase.put(e.getKey(), new long[] {cache[0].getAsLong(),
+												  cache[1].getAsLong()});
+		}
+	}
+
+	public static void main(String[] args) {
+		if(!ENABLED) {
+			System.out.println("Metrics are off, run with -D" + PROPERTY +
+							   "=true");
+			return;
+		}
+		Deck deck = new Deck(new java.util.SplittableRandom(7));
+		for(int i = 0; i < 200; i++) {
+			long hole = deck.deal(2);
+			deck.removeCards(hole);
+			long board = deck.deal(3 + i % 3);
+			deck.putBack(hole);
+			Hand.handStrength(hole, board);
+			// Every board twice, the second time from the cache
+			Hand.updateBoardRanks(CardSet.toString(board));
+			Hand.updateBoardRanks(CardSet.toString(board));
+			if(i % 20 == 0 && CardSet.size(board) < 5) {
+				Hand.effectiveHandStrength(CardSet.toString(hole),
+					CardSet.toString(board), 1);
+			}
+			Heuristics.ChenFormula(CardSet.toString(hole));
+		}
+		Hand.handPotential("7h9h", "8h6c4h", 1);
+		// The second query is isomorphic to the first
+		EquityCache cache = new EquityCache(1 << 10, "Metrics.equity");
+		cache.handStrength(CardSet.parse("AhKh"), CardSet.parse("2h7h9c"));
+		cache.handStrength(CardSet.parse("AsKs"), CardSet.parse("9d2s7s"));
+		Metrics metrics = get();
+		System.out.println("Calls " + metrics.getCalls());
+		System.out.println("Evaluations " + metrics.getEvaluations());
+		System.out.println("Allocated bytes " + metrics.getAllocatedBytes());
+		System.out.println("Median (us) " + metrics.getMedianMicros());
+		System.out.println("99th percentile (us) " + metrics.getP99Micros());
+		System.out.println("Board cache hit rate " + hitRate("Hand.boards"));
+		System.out.println("Equity cache hit rate " +
+						   hitRate("Metrics.equity"));
+	}
+
+}
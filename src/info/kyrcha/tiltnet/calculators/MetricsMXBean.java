@@ -0,0 +1,53 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link Metrics}, registered as
+ * <code>info.kyrcha.tiltnet:type=Metrics</code> when metrics are enabled.
+ * Maps are keyed by call, by call and street ("HAND_STRENGTH/FLOP") or by
+ * cache name.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public interface MetricsMXBean {
+
+	/** Calls by call */
+	Map<String, Long> getCalls();
+
+	/** Hands ranked by call */
+	Map<String, Long> getEvaluations();
+
+	/**
+	 * Bytes allocated by the calling threads by call. Only the thread making
+	 * a call is measured, so calls that run on a fork/join pool, such as
+	 * HAND_POTENTIAL from parallelHandPotential and EFFECTIVE_STRENGTH, are
+	 * under-reported.
+	 */
+	Map<String, Long> getAllocatedBytes();
+
+	/** Mean latency in microseconds by call and street */
+	Map<String, Double> getMeanMicros();
+
+	/** Median latency in microseconds by call and street */
+	Map<String, Double> getMedianMicros();
+
+	/** 99th percentile latency in microseconds by call and street */
+	Map<String, Double> getP99Micros();
+
+	/** Largest latency in microseconds by call and street */
+	Map<String, Double> getMaxMicros();
+
+	/** Hits by cache */
+	Map<String, Long> getCacheHits();
+
+	/** Misses by cache */
+	Map<String, Long> getCacheMisses();
+
+	/** Forget everything counted so far */
+	void reset();
+
+}
@@ -0,0 +1,158 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Sampled all-in equity against random opponents, for spots where
+ * enumerating every deal is too slow (multiway pots, preflop and flop).
+ *
+ * Deals are drawn with the partial Fisher-Yates shuffle of
+ * {@link Deck#deal(int, int[])}, so only the board cards to come and the
+ * opponent hole cards are drawn. Sampling stops as soon as the confidence
+ * interval of the estimate is narrower than the requested tolerance or the
+ * maximum number of samples is reached, letting callers trade accuracy for
+ * latency.
+ *
+ * The interval is the Agresti-Coull interval, z^2 / 2 wins and as many
+ * losses added to the samples: a share of the pot lies in [0,1], so its
+ * variance is at most p (1 - p) of the adjusted mean p. Unlike the sample
+ * variance this never vanishes, so a run of identical outcomes, e.g. a
+ * near lock winning every deal of a batch, does not stop the sampling
+ * with an error of 0. The estimate is the center of the interval.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class MonteCarloEquity {
+
+	/** Two sided 95% quantile of the normal distribution */
+	public final static double Z_95 = 1.959964;
+
+	/** Samples drawn between two checks of the confidence interval */
+	private final static int BATCH = 1000;
+
+	private MonteCarloEquity() {
+	}
+
+	/**
+	 * Estimate the equity of my hand against random opponents, with a 95%
+	 * confidence interval
+	 *
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards so far, see {@link CardSet}
+	 * @param opponents number of opponents
+	 * @param tolerance half width of the confidence interval to reach
+	 * @param maxSamples maximum number of deals
+	 * @param random source of the deals
+	 * @return the estimate, its error bound and the number of samples
+	 */
+	public static EquityEstimate estimate(long holeCards, long boardCards,
+										  int opponents, double tolerance,
+										  int maxSamples,
+										  RandomGenerator random) {
+		return estimate(holeCards, boardCards, opponents, tolerance,
+						maxSamples, Z_95, random);
+	}
+
+	/**
+	 * Estimate the equity of my hand against random opponents
+	 *
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards so far, see {@link CardSet}
+	 * @param opponents number of opponents
+	 * @param tolerance half width of the confidence interval to reach
+	 * @param maxSamples maximum number of deals
+	 * @param z normal quantile of the confidence level
+	 * @param random source of the deals
+	 * @return the estimate, its error bound and the number of samples
+	 */
+	public static EquityEstimate estimate(long holeCards, long boardCards,
+										  int opponents, double tolerance,
+										  int maxSamples, double z,
+										  RandomGenerator random) {
+		long dead = holeCards | boardCards;
+		int toCome = 5 - CardSet.size(boardCards);
+		int dealt = toCome + 2 * opponents;
+		if(CardSet.size(holeCards) != 2 ||
+		   !CardSet.disjoint(holeCards, boardCards)) {
+			throw new IllegalArgumentException("Bad hole cards " +
+				CardSet.toString(holeCards) + " on " +
+				CardSet.toString(boardCards));
+		}
+		if(toCome < 0 || opponents < 1 ||
+		   dealt > CardSet.size(CardSet.FULL & ~dead)) {
+			throw new IllegalArgumentException("Cannot deal " + opponents +
+				" opponents to " + CardSet.toString(holeCards) + "-" +
+				CardSet.toString(boardCards));
+		}
+		Deck deck = new Deck(random);
+		deck.removeCards(dead);
+		int[] cards = new int[dealt];
+		int myKey = HandEvaluator.rankKey(holeCards);
+		int boardKey = HandEvaluator.rankKey(boardCards);
+		double sum = 0;
+		int samples = 0;
+		double error = Double.POSITIVE_INFINITY;
+		while(samples < maxSamples) {
+			int batch = Math.min(BATCH, maxSamples - samples);
+			for(int s = 0; s < batch; s++) {
+				deck.deal(dealt, cards);
+				int key = boardKey;
+				long board = boardCards;
+				for(int i = 0; i < toCome; i++) {
+					key += HandEvaluator.rankKey(cards[i]);
+					board |= CardSet.of(cards[i]);
+				}
+				int myRank = HandEvaluator.rank(key + myKey, board | holeCards);
+				int tied = 1;
+				boolean lost = false;
+				for(int o = toCome; o < dealt && !lost; o += 2) {
+					int c1 = cards[o];
+					int c2 = cards[o + 1];
+					int oppRank = HandEvaluator.rank(key +
+						HandEvaluator.rankKey(c1) + HandEvaluator.rankKey(c2),
+						board | CardSet.of(c1) | CardSet.of(c2));
+					if(oppRank > myRank) lost = true;
+					else if(oppRank == myRank) tied++;
+				}
+				if(!lost) sum += 1.0 / tied;
+			}
+			samples += batch;
+			error = z * Math.sqrt(variance(sum, samples, z) /
+								  (samples + z * z));
+			if(error <= tolerance) break;
+		}
+		return new EquityEstimate(samples == 0 ? 0 : center(sum, samples, z),
+								  error, samples);
+	}
+
+	/**
+	 * Mean of the samples with z^2 / 2 wins and z^2 / 2 losses added
+	 */
+	private static double center(double sum, int samples, double z) {
+		return (sum + z * z / 2) / (samples + z * z);
+	}
+
+	/**
+	 * Bound on the variance of a share of the pot, from the adjusted mean
+	 */
+	private static double variance(double sum, int samples, double z) {
+		double p = center(sum, samples, z);
+		return p * (1 - p);
+	}
+
+	public static void main(String[] args) {
+		SplittableRandom random = new SplittableRandom(1);
+		System.out.println("AdAs vs 1 : " + estimate(CardSet.parse("AdAs"),
+			CardSet.EMPTY, 1, 0.005, 1000000, random));
+		System.out.println("AdAs vs 5 : " + estimate(CardSet.parse("AdAs"),
+			CardSet.EMPTY, 5, 0.005, 1000000, random));
+		System.out.println("7h9h-8h6c4h vs 3 : " + estimate(
+			CardSet.parse("7h9h"), CardSet.parse("8h6c4h"), 3, 0.001,
+			1000000, random));
+	}
+
+}
@@ -0,0 +1,296 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.SplittableRandom;
+
+/**
+ * Hand strength against several opponents. Raising the heads-up hand
+ * strength to the number of opponents is biased because the opponents'
+ * hole cards block each other; here the opponents get disjoint hole cards.
+ *
+ * The board's rank key is computed once and every opponent hole card pair
+ * is ranked once and classified as weaker, tied or stronger than my hand.
+ * Counting deals then only needs card overlaps:
+ * <ul>
+ * <li>I win when all opponents are weaker and lose unless all are weaker
+ * or tied, so the probabilities follow from the number of ways to give
+ * every opponent hole cards from a given class of pairs, i.e. the number
+ * of matchings of that size.</li>
+ * <li>Matchings are enumerated depth first with the last opponent counted
+ * in closed form. When the complement of the class is smaller, the
+ * matchings of the complement are enumerated instead and the count follows
+ * by inclusion-exclusion over the matchings of the whole deck, which
+ * prunes most of the work for very strong and very weak hands.</li>
+ * </ul>
+ * Exact counting grows quickly with the number of opponents, so
+ * {@link #handStrength(long, long, int)} samples random deals from the
+ * ranked pairs beyond {@link #EXACT_OPPONENTS} opponents.
+ *
+ * Results are indexed by {@link Hand#BETTER} (win), {@link Hand#TIED} and
+ * {@link Hand#WORSE} (lose).
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class MultiwayStrength {
+
+	/** Largest number of opponents counted exactly by default */
+	public final static int EXACT_OPPONENTS = 3;
+
+	/** Number of deals sampled by default */
+	public final static int DEFAULT_SAMPLES = 200000;
+
+	private MultiwayStrength() {
+	}
+
+	/**
+	 * Win, tie and lose probabilities against random opponents, exact up to
+	 * {@link #EXACT_OPPONENTS} opponents and sampled beyond
+	 *
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards, see {@link CardSet}
+	 * @param opponents number of opponents
+	 * @return probabilities indexed by relative rank
+	 */
+	public static double[] handStrength(long holeCards, long boardCards,
+										int opponents) {
+		if(opponents <= EXACT_OPPONENTS) {
+			return exact(holeCards, boardCards, opponents);
+		}
+		return sample(holeCards, boardCards, opponents, DEFAULT_SAMPLES,
+					  new SplittableRandom());
+	}
+
+	/**
+	 * Exact win, tie and lose probabilities against random opponents
+	 *
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards, see {@link CardSet}
+	 * @param opponents number of opponents
+	 * @return probabilities indexed by relative rank
+	 */
+	public static double[] exact(long holeCards, long boardCards,
+								 int opponents) {
+		Pairs pairs = new Pairs(holeCards, boardCards, opponents);
+		// Pairs I beat, and pairs I beat or tie with
+		boolean[] weaker = new boolean[Hand.NUM_REL_RANKS];
+		weaker[Hand.BETTER] = true;
+		boolean[] notStronger = new boolean[Hand.NUM_REL_RANKS];
+		notStronger[Hand.BETTER] = true;
+		notStronger[Hand.TIED] = true;
+		double all = pairs.complete(pairs.cards.length, opponents);
+		double win = pairs.count(weaker, opponents) / all;
+		double winOrTie = pairs.count(notStronger, opponents) / all;
+		double[] strength = new double[Hand.NUM_REL_RANKS];
+		strength[Hand.BETTER] = win;
+		strength[Hand.TIED] = winOrTie - win;
+		strength[Hand.WORSE] = 1 - winOrTie;
+		return strength;
+	}
+
+	/**
+	 * Sampled win, tie and lose probabilities against random opponents. The
+	 * pairs are ranked once, so a sample costs a few random numbers and
+	 * table reads.
+	 *
+	 * @param holeCards the cards in my hand, see {@link CardSet}
+	 * @param boardCards community cards, see {@link CardSet}
+	 * @param opponents number of opponents
+	 * @param samples number of deals
+	 * @param random source of the deals
+	 * @return probabilities indexed by relative rank
+	 */
+	public static double[] sample(long holeCards, long boardCards,
+								  int opponents, int samples,
+								  SplittableRandom random) {
+		Pairs pairs = new Pairs(holeCards, boardCards, opponents);
+		int[] deck = pairs.cards.clone();
+		int dealt = 2 * opponents;
+		int[] counts = new int[Hand.NUM_REL_RANKS];
+		for(int s = 0; s < samples; s++) {
+			for(int i = 0; i < dealt; i++) {
+				int j = i + random.nextInt(deck.length - i);
+				int t = deck[i];
+				deck[i] = deck[j];
+				deck[j] = t;
+			}
+			int result = Hand.BETTER;
+			for(int i = 0; i < dealt && result != Hand.WORSE; i += 2) {
+				int relative = pairs.relative[deck[i] * Card.NUM_CARDS + deck[i + 1]];
+				// Relative rank of the opponent: BETTER means a weaker pair
+				if(relative == Hand.WORSE) result = Hand.WORSE;
+				else if(relative == Hand.TIED) result = Hand.TIED;
+			}
+			counts[result]++;
+		}
+		double[] strength = new double[Hand.NUM_REL_RANKS];
+		for(int i = 0; i < Hand.NUM_REL_RANKS; i++) {
+			strength[i] = counts[i] / (double) samples;
+		}
+		return strength;
+	}
+
+	/**
+	 * The opponent hole card pairs left, ranked against my hand
+	 */
+	private final static class Pairs {
+
+		/** Cards left in the deck */
+		final int[] cards;
+
+		/** My relative rank against each pair, by 52 * card + card */
+		final int[] relative = new int[Card.NUM_CARDS * Card.NUM_CARDS];
+
+		Pairs(long holeCards, long boardCards, int opponents) {
+			long deck = CardSet.FULL & ~(holeCards | boardCards);
+			cards = new int[CardSet.size(deck)];
+			CardSet.toArray(deck, cards, 0);
+			if(opponents < 1 || 2 * opponents > cards.length) {
+				throw new IllegalArgumentException("Cannot deal " + opponents +
+					" opponents to " + CardSet.toString(holeCards) + "-" +
+					CardSet.toString(boardCards));
+			}
+			int boardKey = HandEvaluator.rankKey(boardCards);
+			int rank = HandEvaluator.rank(boardKey +
+				HandEvaluator.rankKey(holeCards), holeCards | boardCards);
+			for(int i = 0; i < cards.length; i++) {
+				int key = boardKey + HandEvaluator.rankKey(cards[i]);
+				long mask = boardCards | CardSet.of(cards[i]);
+				for(int j = i + 1; j < cards.length; j++) {
+					int oppRank = HandEvaluator.rank(
+						key + HandEvaluator.rankKey(cards[j]),
+						mask | CardSet.of(cards[j]));
+					int r;
+					if(rank > oppRank) r = Hand.BETTER;
+					else if(rank == oppRank) r = Hand.TIED;
+					else r = Hand.WORSE;
+					relative[cards[i] * Card.NUM_CARDS + cards[j]] = r;
+					relative[cards[j] * Card.NUM_CARDS + cards[i]] = r;
+				}
+			}
+		}
+
+		/**
+		 * Number of ways to deal hole cards from the given classes to the
+		 * opponents, enumerating the smaller of the class and its
+		 * complement
+		 */
+		double count(boolean[] classes, int opponents) {
+			int[][] in = edges(classes, false);
+			int[][] out = edges(classes, true);
+			if(in.length <= out.length) {
+				return matchings(in, opponents)[opponents];
+			}
+			double[] excluded = matchings(out, opponents);
+			double count = 0;
+			for(int j = 0; j <= opponents; j++) {
+				double term = excluded[j] *
+							  complete(cards.length - 2 * j, opponents - j);
+				count += (j % 2 == 0) ? term : -term;
+			}
+			return count;
+		}
+
+		/**
+		 * The pairs in (or not in) the given classes
+		 */
+		private int[][] edges(boolean[] classes, boolean complement) {
+			int n = 0;
+			int[][] edges = new int[cards.length * (cards.length - 1) / 2][];
+			for(int i = 0; i < cards.length; i++) {
+				for(int j = i + 1; j < cards.length; j++) {
+					int r = relative[cards[i] * Card.NUM_CARDS + cards[j]];
+					if(classes[r] != complement) {
+						edges[n++] = new int[] {cards[i], cards[j]};
+					}
+				}
+			}
+			int[][] result = new int[n][];
+			System.arraycopy(edges, 0, result, 0, n);
+			return result;
+		}
+
+		/**
+		 * Number of matchings of each size up to k among the given pairs
+		 */
+		private double[] matchings(int[][] edges, int k) {
+			double[] counts = new double[k + 1];
+			counts[0] = 1;
+			if(k == 0) return counts;
+			int[] degree = new int[Card.NUM_CARDS];
+			boolean[] present = new boolean[Card.NUM_CARDS * Card.NUM_CARDS];
+			for(int[] e : edges) {
+				degree[e[0]]++;
+				degree[e[1]]++;
+				present[e[0] * Card.NUM_CARDS + e[1]] = true;
+				present[e[1] * Card.NUM_CARDS + e[0]] = true;
+			}
+			int[] used = new int[2 * k];
+			// Every k-matching is found once per choice of its last pair
+			double[] last = new double[1];
+			search(edges, 0, 0, 0L, k, used, degree, present, counts, last);
+			counts[k] = last[0] / k;
+			return counts;
+		}
+
+		private void search(int[][] edges, int from, int depth, long usedMask,
+							int k, int[] used, int[] degree,
+							boolean[] present, double[] counts,
+							double[] last) {
+			if(depth == k - 1) {
+				// Pairs disjoint from the cards used so far
+				long free = edges.length;
+				for(int i = 0; i < 2 * depth; i++) {
+					free -= degree[used[i]];
+					for(int j = i + 1; j < 2 * depth; j++) {
+						if(present[used[i] * Card.NUM_CARDS + used[j]]) free++;
+					}
+				}
+				last[0] += free;
+				return;
+			}
+			for(int e = from; e < edges.length; e++) {
+				int a = edges[e][0];
+				int b = edges[e][1];
+				if((usedMask & (CardSet.of(a) | CardSet.of(b))) != 0) continue;
+				counts[depth + 1]++;
+				used[2 * depth] = a;
+				used[2 * depth + 1] = b;
+				search(edges, e + 1, depth + 1,
+					   usedMask | CardSet.of(a) | CardSet.of(b), k, used,
+					   degree, present, counts, last);
+			}
+		}
+
+		/**
+		 * Number of ways to deal k unordered pairs out of n cards
+		 */
+		double complete(int n, int k) {
+			double count = 1;
+			for(int i = 0; i < k; i++) {
+				count *= (n - 2 * i) * (n - 2 * i - 1) / 2.0;
+				count /= (i + 1);
+			}
+			return count;
+		}
+
+	}
+
+	public static void main(String[] args) {
+		long hole = CardSet.parse("QcJd");
+		long board = CardSet.parse("Js8h6d");
+		System.out.println("Hand Strength of QcJd-Js8h6d : " +
+						   Hand.handStrength(hole, board));
+		for(int opponents = 1; opponents <= 9; opponents++) {
+			long start = System.currentTimeMillis();
+			double[] strength = handStrength(hole, board, opponents);
+			long end = System.currentTimeMillis();
+			System.out.println(opponents + " opponents: win " +
+				strength[Hand.BETTER] + " tie " + strength[Hand.TIED] +
+				" lose " + strength[Hand.WORSE] +
+				" (" + (end - start) + " ms)");
+		}
+	}
+
+}
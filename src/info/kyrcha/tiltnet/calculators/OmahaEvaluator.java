@@ -0,0 +1,443 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.stream.IntStream;
+
+/**
+ * Omaha hi evaluation for four and five hole cards: a hand is the best
+ * five cards made of exactly two hole cards and three board cards, i.e. the
+ * best of 6 or 10 hole pairs times 1 to 10 board triples. Ranks are
+ * comparable with {@link Hand#rankHand(Hand)}.
+ *
+ * The pairs and triples are taken from precomputed index tables and
+ * ranked with the {@link HandEvaluator} tables directly: a combination can
+ * only be a flush when its pair is suited and its triple has the same
+ * suit, so every other combination is ranked from its rank key alone.
+ *
+ * An evaluator built with {@link #of(long)} holds the board side of the
+ * work: the best rank of every two card pair with the board, so that an
+ * Omaha hand on that board costs a read per hole pair. Hand strength
+ * enumerates the opponent hands card by card keeping the best pair so far,
+ * and counts a whole subtree at once as soon as the opponent is already
+ * ahead.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class OmahaEvaluator {
+
+	/** Fewest hole cards */
+	public final static int MIN_HOLE_CARDS = 4;
+
+	/** Most hole cards */
+	public final static int MAX_HOLE_CARDS = 5;
+
+	private final static int MAX_BOARD_CARDS = 5;
+
+	/** Positions of the pairs among n cards, by n */
+	private final static int[][][] PAIRS = new int[MAX_HOLE_CARDS + 1][][];
+
+	/** Positions of the triples among n cards, by n */
+	private final static int[][][] TRIPLES = new int[MAX_BOARD_CARDS + 1][][];
+
+	static {
+		for(int n = 2; n <= MAX_HOLE_CARDS; n++) {
+			PAIRS[n] = combinations(n, 2);
+		}
+		for(int n = 3; n <= MAX_BOARD_CARDS; n++) {
+			TRIPLES[n] = combinations(n, 3);
+		}
+	}
+
+	private final long boardCards;
+
+	/** Best rank of two cards plus three board cards, by 52 * card + card */
+	private final int[] pairRanks;
+
+	private OmahaEvaluator(long boardCards) {
+		this.boardCards = boardCards;
+		this.pairRanks = new int[Card.NUM_CARDS * Card.NUM_CARDS];
+		Triples triples = new Triples();
+		int[] board = new int[MAX_BOARD_CARDS];
+		triples.set(board, CardSet.toArray(boardCards, board, 0));
+		long deck = CardSet.FULL & ~boardCards;
+		for(long s1 = deck; s1 != 0; s1 = CardSet.removeFirst(s1)) {
+			int c1 = CardSet.first(s1);
+			for(long s2 = CardSet.removeFirst(s1); s2 != 0;
+					s2 = CardSet.removeFirst(s2)) {
+				int c2 = CardSet.first(s2);
+				int rank = triples.best(c1, c2);
+				pairRanks[c1 * Card.NUM_CARDS + c2] = rank;
+				pairRanks[c2 * Card.NUM_CARDS + c1] = rank;
+			}
+		}
+	}
+
+	private static int[][] combinations(int n, int k) {
+		int count = 1;
+		for(int i = 0; i < k; i++) count = count * (n - i) / (i + 1);
+		int[][] combinations = new int[count][k];
+		int[] c = new int[k];
+		for(int i = 0; i < k; i++) c[i] = i;
+		for(int m = 0; m < count; m++) {
+			combinations[m] = c.clone();
+			// Next combination in lexicographic order
+			int i = k - 1;
+			while(i >= 0 && c[i] == n - k + i) i--;
+			if(i < 0) break;
+			c[i]++;
+			for(int j = i + 1; j < k; j++) c[j] = c[j - 1] + 1;
+		}
+		return combinations;
+	}
+
+	/**
+	 * Rank keys, flush suits and rank masks of the triples of a board
+	 */
+	private static final class Triples {
+
+		final int[] keys = new int[TRIPLES[MAX_BOARD_CARDS].length];
+
+		/** Suit of the triple if suited, -1 otherwise */
+		final int[] suits = new int[keys.length];
+
+		final int[] rankMasks = new int[keys.length];
+
+		int size;
+
+		void set(int[] board, int boardSize) {
+			int[][] triples = TRIPLES[boardSize];
+			size = triples.length;
+			for(int t = 0; t < size; t++) {
+				int b1 = board[triples[t][0]];
+				int b2 = board[triples[t][1]];
+				int b3 = board[triples[t][2]];
+				keys[t] = HandEvaluator.rankKey(b1) + HandEvaluator.rankKey(b2) +
+						  HandEvaluator.rankKey(b3);
+				int suit = Card.getSuit(b1);
+				suits[t] = (Card.getSuit(b2) == suit && Card.getSuit(b3) == suit) ?
+						   suit : -1;
+				rankMasks[t] = (1 << Card.getRank(b1)) | (1 << Card.getRank(b2)) |
+							   (1 << Card.getRank(b3));
+			}
+		}
+
+		/** Best rank of two hole cards with a triple */
+		int best(int c1, int c2) {
+			int key = HandEvaluator.rankKey(c1) + HandEvaluator.rankKey(c2);
+			int suit = Card.getSuit(c1) == Card.getSuit(c2) ? Card.getSuit(c1) : -2;
+			int ranks = (1 << Card.getRank(c1)) | (1 << Card.getRank(c2));
+			int best = 0;
+			for(int t = 0; t < size; t++) {
+				// Five suited cards of distinct ranks: the flush rank is the
+				// higher one
+				int rank = suits[t] == suit ?
+					HandEvaluator.rankFlush(rankMasks[t] | ranks) :
+					HandEvaluator.rankNoFlush(keys[t] + key);
+				if(rank > best) best = rank;
+			}
+			return best;
+		}
+
+		/** Best rank of a hand with the triples */
+		int best(int[] hole, int holeSize) {
+			int best = 0;
+			for(int[] pair : PAIRS[holeSize]) {
+				int rank = best(hole[pair[0]], hole[pair[1]]);
+				if(rank > best) best = rank;
+			}
+			return best;
+		}
+
+	}
+
+	/**
+	 * Builds the evaluator of a board
+	 *
+	 * @param boardCards three to five community cards, see {@link CardSet}
+	 * @return the evaluator
+	 */
+	public static OmahaEvaluator of(long boardCards) {
+		int size = CardSet.size(boardCards);
+		if(size < 3 || size > MAX_BOARD_CARDS) {
+			throw new IllegalArgumentException("Not a flop, turn or river: " +
+				CardSet.toString(boardCards));
+		}
+		return new OmahaEvaluator(boardCards);
+	}
+
+	private static int checkHoleCards(long holeCards, long boardCards) {
+		int size = CardSet.size(holeCards);
+		if(size < MIN_HOLE_CARDS || size > MAX_HOLE_CARDS ||
+		   (holeCards & boardCards) != 0) {
+			throw new IllegalArgumentException("Not an Omaha hand: " +
+				CardSet.toString(holeCards) + " on " +
+				CardSet.toString(boardCards));
+		}
+		return size;
+	}
+
+	/**
+	 * Rank an Omaha hand without building the board tables
+	 *
+	 * @param holeCards four or five hole cards, see {@link CardSet}
+	 * @param boardCards three to five community cards, see {@link CardSet}
+	 * @return the rank, as returned by {@link Hand#rankHand(Hand)}
+	 */
+	public static int rank(long holeCards, long boardCards) {
+		int boardSize = CardSet.size(boardCards);
+		if(boardSize < 3 || boardSize > MAX_BOARD_CARDS) {
+			throw new IllegalArgumentException("Not a flop, turn or river: " +
+				CardSet.toString(boardCards));
+		}
+		int[] hole = new int[MAX_HOLE_CARDS];
+		int[] board = new int[MAX_BOARD_CARDS];
+		int holeSize = checkHoleCards(holeCards, boardCards);
+		CardSet.toArray(holeCards, hole, 0);
+		CardSet.toArray(boardCards, board, 0);
+		Triples triples = new Triples();
+		triples.set(board, boardSize);
+		return triples.best(hole, holeSize);
+	}
+
+	/**
+	 * The board of the evaluator
+	 * @return the community cards, see {@link CardSet}
+	 */
+	public long getBoardCards() {
+		return boardCards;
+	}
+
+	/**
+	 * Rank of an Omaha hand on this board
+	 *
+	 * @param holeCards four or five hole cards, see {@link CardSet}
+	 * @return the rank, as returned by {@link Hand#rankHand(Hand)}
+	 */
+	public int rank(long holeCards) {
+		checkHoleCards(holeCards, boardCards);
+		int best = 0;
+		for(long s1 = holeCards; s1 != 0; s1 = CardSet.removeFirst(s1)) {
+			int row = CardSet.first(s1) * Card.NUM_CARDS;
+			for(long s2 = CardSet.removeFirst(s1); s2 != 0;
+					s2 = CardSet.removeFirst(s2)) {
+				best = Math.max(best, pairRanks[row + CardSet.first(s2)]);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Hand strength on this board against an opponent with as many hole
+	 * cards, counting ties as half
+	 *
+	 * @param holeCards four or five hole cards, see {@link CardSet}
+	 * @return hand strength in [0,1]
+	 */
+	public double handStrength(long holeCards) {
+		int size = checkHoleCards(holeCards, boardCards);
+		int rank = rank(holeCards);
+		int[] deck = new int[Card.NUM_CARDS];
+		int n = CardSet.toArray(CardSet.FULL & ~(holeCards | boardCards),
+								deck, 0);
+		long[] counts = new long[Hand.NUM_REL_RANKS];
+		count(deck, n, 0, size, new int[size], 0, 0, rank, counts);
+		return (counts[Hand.BETTER] + counts[Hand.TIED] / 2.0) /
+			   (counts[Hand.BETTER] + counts[Hand.TIED] + counts[Hand.WORSE]);
+	}
+
+	/**
+	 * Count the opponent hands completing the chosen cards, by relative rank
+	 *
+	 * @param best best pair rank of the chosen cards
+	 */
+	private void count(int[] deck, int n, int start, int left, int[] chosen,
+					   int depth, int best, int rank, long[] counts) {
+		if(best > rank) {
+			// Ahead whatever the remaining cards
+			counts[Hand.WORSE] += choose(n - start, left);
+			return;
+		}
+		if(left == 0) {
+			counts[best == rank ? Hand.TIED : Hand.BETTER]++;
+			return;
+		}
+		for(int i = start; i <= n - left; i++) {
+			int card = deck[i];
+			int row = card * Card.NUM_CARDS;
+			int b = best;
+			for(int j = 0; j < depth; j++) {
+				b = Math.max(b, pairRanks[row + chosen[j]]);
+			}
+			chosen[depth] = card;
+			count(deck, n, i + 1, left - 1, chosen, depth + 1, b, rank, counts);
+		}
+	}
+
+	private static long choose(int n, int k) {
+		long c = 1;
+		for(int i = 0; i < k; i++) c = c * (n - i) / (i + 1);
+		return c;
+	}
+
+	/**
+	 * Hand strength against an opponent with as many hole cards, see
+	 * {@link #handStrength(long)}
+	 *
+	 * @param holeCards four or five hole cards, see {@link CardSet}
+	 * @param boardCards three to five community cards, see {@link CardSet}
+	 * @return hand strength in [0,1]
+	 */
+	public static double handStrength(long holeCards, long boardCards) {
+		return of(boardCards).handStrength(holeCards);
+	}
+
+	/**
+	 * Equity of a hand against another, enumerating every runout of the
+	 * board in parallel. Each runout sets up the triples of its board once
+	 * for both hands.
+	 *
+	 * @param heroCards four or five hole cards, see {@link CardSet}
+	 * @param villainCards four or five hole cards, see {@link CardSet}
+	 * @param boardCards zero to five community cards, see {@link CardSet}
+	 * @return share of the pot won by the hero on average
+	 */
+	public static double equity(long heroCards, long villainCards,
+								long boardCards) {
+		int boardSize = CardSet.size(boardCards);
+		if(boardSize > MAX_BOARD_CARDS || (heroCards & villainCards) != 0) {
+			throw new IllegalArgumentException("Cannot deal " +
+				CardSet.toString(heroCards) + " vs " +
+				CardSet.toString(villainCards) + " on " +
+				CardSet.toString(boardCards));
+		}
+		int heroSize = checkHoleCards(heroCards, boardCards);
+		int villainSize = checkHoleCards(villainCards, boardCards);
+		int[] deck = new int[Card.NUM_CARDS];
+		int n = CardSet.toArray(CardSet.FULL &
+			~(heroCards | villainCards | boardCards), deck, 0);
+		int missing = MAX_BOARD_CARDS - boardSize;
+		if(missing == 0) {
+			int hero = rank(heroCards, boardCards);
+			int villain = rank(villainCards, boardCards);
+			return hero > villain ? 1 : (hero == villain ? 0.5 : 0);
+		}
+		// Won (counting ties as half) and played, split by first card dealt
+		double[] totals = IntStream.range(0, n - missing + 1).parallel().collect(
+			() -> new double[2],
+			(acc, first) -> {
+				Runouts runouts = new Runouts(heroCards, heroSize, villainCards,
+											  villainSize, boardCards, deck, n);
+				runouts.board[boardSize] = deck[first];
+				runouts.deal(first + 1, boardSize + 1, acc);
+			},
+			(one, two) -> { one[0] += two[0]; one[1] += two[1]; });
+		return totals[0] / totals[1];
+	}
+
+	/**
+	 * Enumeration of the runouts of a board for two hands
+	 */
+	private static final class Runouts {
+
+		final int[] hero = new int[MAX_HOLE_CARDS];
+
+		final int heroSize;
+
+		final int[] villain = new int[MAX_HOLE_CARDS];
+
+		final int villainSize;
+
+		final int[] board = new int[MAX_BOARD_CARDS];
+
+		final int[] deck;
+
+		final int n;
+
+		final Triples triples = new Triples();
+
+		Runouts(long heroCards, int heroSize, long villainCards,
+				int villainSize, long boardCards, int[] deck, int n) {
+			CardSet.toArray(heroCards, hero, 0);
+			this.heroSize = heroSize;
+			CardSet.toArray(villainCards, villain, 0);
+			this.villainSize = villainSize;
+			CardSet.toArray(boardCards, board, 0);
+			this.deck = deck;
+			this.n = n;
+		}
+
+		/** Deal the board cards from position size on */
+		void deal(int start, int size, double[] totals) {
+			if(size == MAX_BOARD_CARDS) {
+				triples.set(board, MAX_BOARD_CARDS);
+				int h = triples.best(hero, heroSize);
+				int v = triples.best(villain, villainSize);
+				totals[0] += h > v ? 1 : (h == v ? 0.5 : 0);
+				totals[1]++;
+				return;
+			}
+			for(int i = start; i <= n - (MAX_BOARD_CARDS - size); i++) {
+				board[size] = deck[i];
+				deal(i + 1, size + 1, totals);
+			}
+		}
+
+	}
+
+	public String toString() {
+		return CardSet.toString(boardCards);
+	}
+
+	public static void main(String[] args) {
+		// Compare with the best of the two plus three card hands
+		Deck deck = new Deck(1);
+		int mismatches = 0;
+		int hands = 20000;
+		for(int i = 0; i < hands; i++) {
+			long hole = deck.deal(MIN_HOLE_CARDS + i % 2);
+			deck.removeCards(hole);
+			long board = deck.deal(3 + i % 3);
+			deck.putBack(hole);
+			int[] h = new int[MAX_HOLE_CARDS];
+			int[] b = new int[MAX_BOARD_CARDS];
+			int holeSize = CardSet.toArray(hole, h, 0);
+			int boardSize = CardSet.toArray(board, b, 0);
+			int best = 0;
+			for(int[] pair : PAIRS[holeSize]) {
+				for(int[] triple : TRIPLES[boardSize]) {
+					Hand hand = new Hand();
+					hand.addCard(new Card(h[pair[0]]));
+					hand.addCard(new Card(h[pair[1]]));
+					for(int t : triple) hand.addCard(new Card(b[t]));
+					best = Math.max(best, Hand.rankHand(hand));
+				}
+			}
+			if(best != rank(hole, board) || best != of(board).rank(hole)) {
+				mismatches++;
+			}
+		}
+		System.out.println("Mismatches with Hand.rankHand: " + mismatches +
+						   " out of " + hands);
+		long hole = CardSet.parse("AhAsKhQs");
+		long flop = CardSet.parse("Jh7s2c");
+		long river = CardSet.parse("Jh7s2cTd3h");
+		long start = System.currentTimeMillis();
+		OmahaEvaluator evaluator = of(river);
+		System.out.println(CardSet.toString(hole) + " on " + evaluator + ": " +
+						   Hand.nameOfHand(evaluator.rank(hole)) +
+						   ", hand strength " + evaluator.handStrength(hole));
+		System.out.println("Flop hand strength " + handStrength(hole, flop) +
+						   " (" + (System.currentTimeMillis() - start) + " ms)");
+		long villain = CardSet.parse("9h8h6d5d");
+		start = System.currentTimeMillis();
+		System.out.println(CardSet.toString(hole) + " vs " +
+						   CardSet.toString(villain) + " on " +
+						   CardSet.toString(flop) + ": " +
+						   equity(hole, villain, flop));
+		System.out.println("Preflop: " + equity(hole, villain, CardSet.EMPTY) +
+						   " (" + (System.currentTimeMillis() - start) + " ms)");
+	}
+
+}
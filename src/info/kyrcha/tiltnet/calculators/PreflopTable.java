@@ -0,0 +1,318 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * All-in equity of the 169 starting hand classes against 1 to 9 random
+ * opponents. The table is generated once with {@link #generate(Path, int,
+ * long)}, stored in a small binary file and memory mapped by
+ * {@link #load(Path)}, so a preflop lookup is a single indexed read.
+ *
+ * Classes are laid out as a 13x13 grid: pairs on the diagonal
+ * (rank * 13 + rank), suited hands at high * 13 + low and offsuit hands at
+ * low * 13 + high.
+ *
+ * File format (big endian): magic, version, number of classes, maximum
+ * number of opponents, then a float per class and number of opponents.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public class PreflopTable {
+
+	public final static int NUM_CLASSES = Card.NUM_RANKS * Card.NUM_RANKS;
+
+	public final static int MAX_OPPONENTS = 9;
+
+	private final static int MAGIC = 0x50464551;
+
+	private final static int VERSION = 1;
+
+	private final static int HEADER = 4 * 4;
+
+	/** Class of every pair of card indices */
+	private final static int[] CLASS_INDEX = new int[Card.NUM_CARDS * Card.NUM_CARDS];
+
+	static {
+		for(int i = 0; i < Card.NUM_CARDS; i++) {
+			for(int j = 0; j < Card.NUM_CARDS; j++) {
+				int high = Math.max(Card.getRank(i), Card.getRank(j));
+				int low = Math.min(Card.getRank(i), Card.getRank(j));
+				if(Card.getSuit(i) == Card.getSuit(j)) {
+					CLASS_INDEX[i * Card.NUM_CARDS + j] = high * Card.NUM_RANKS + low;
+				} else {
+					CLASS_INDEX[i * Card.NUM_CARDS + j] = low * Card.NUM_RANKS + high;
+				}
+			}
+		}
+	}
+
+	private final ByteBuffer buffer;
+
+	private PreflopTable(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Starting hand class of two hole cards
+	 * @param card1 index of the first card
+	 * @param card2 index of the second card
+	 * @return the class between 0 and 168
+	 */
+	public static int classIndex(int card1, int card2) {
+		return CLASS_INDEX[card1 * Card.NUM_CARDS + card2];
+	}
+
+	/**
+	 * Name of a starting hand class, e.g. "AKs", "T9o" or "77"
+	 * @param classIndex the class
+	 * @return the name
+	 */
+	public static String className(int classIndex) {
+		int row = classIndex / Card.NUM_RANKS;
+		int column = classIndex % Card.NUM_RANKS;
+		if(row == column) {
+			return "" + Card.getRankChar(row) + Card.getRankChar(row);
+		} else if(row > column) {
+			return "" + Card.getRankChar(row) + Card.getRankChar(column) + 's';
+		} else {
+			return "" + Card.getRankChar(column) + Card.getRankChar(row) + 'o';
+		}
+	}
+
+	/**
+	 * Memory map a table file
+	 * @param file the file written by {@link #generate(Path, int, long)}
+	 * @return the table
+	 * @throws IOException if the file cannot be read or is not a table
+	 */
+	public static PreflopTable load(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+											channel.size());
+			if(buffer.limit() != HEADER + 4 * NUM_CLASSES * MAX_OPPONENTS ||
+			   buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION ||
+			   buffer.getInt(8) != NUM_CLASSES ||
+			   buffer.getInt(12) != MAX_OPPONENTS) {
+				throw new IOException("Not a preflop table: " + file);
+			}
+			return new PreflopTable(buffer);
+		}
+	}
+
+	/**
+	 * All-in equity of a starting hand class
+	 * @param classIndex the class
+	 * @param opponents number of opponents between 1 and 9
+	 * @return share of the pot won on average
+	 */
+	public float equity(int classIndex, int opponents) {
+		return buffer.getFloat(HEADER +
+			4 * (classIndex * MAX_OPPONENTS + opponents - 1));
+	}
+
+	/**
+	 * All-in equity of two hole cards
+	 * @param card1 index of the first card
+	 * @param card2 index of the second card
+	 * @param opponents number of opponents between 1 and 9
+	 * @return share of the pot won on average
+	 */
+	public float equity(int card1, int card2, int opponents) {
+		return equity(CLASS_INDEX[card1 * Card.NUM_CARDS + card2], opponents);
+	}
+
+	/**
+	 * Generate the table. Equity against one opponent is exact: every
+	 * board is ranked once for all the hole cards, and boards that only
+	 * differ by a permutation of the suits are done once. Against more
+	 * opponents it is estimated from the given number of random deals.
+	 * Both run in parallel.
+	 *
+	 * @param file the file to write
+	 * @param samples number of deals per class and number of opponents
+	 * @param seed seed of the random deals
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void generate(Path file, int samples, long seed)
+			throws IOException {
+		double[] equities = new double[NUM_CLASSES * MAX_OPPONENTS];
+		double[] headsUp = headsUpEquities();
+		for(int c = 0; c < NUM_CLASSES; c++) {
+			equities[c * MAX_OPPONENTS] = headsUp[c];
+		}
+		IntStream.range(0, NUM_CLASSES * (MAX_OPPONENTS - 1)).parallel().forEach(cell -> {
+			int classIndex = cell / (MAX_OPPONENTS - 1);
+			int opponents = 2 + cell % (MAX_OPPONENTS - 1);
+			SplittableRandom random = new SplittableRandom(seed + cell);
+			equities[classIndex * MAX_OPPONENTS + opponents - 1] =
+				sampleEquity(classIndex, opponents, samples, random);
+		});
+		try(OutputStream out = Files.newOutputStream(file);
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeInt(NUM_CLASSES);
+			data.writeInt(MAX_OPPONENTS);
+			for(int i = 0; i < equities.length; i++) {
+				data.writeFloat((float) equities[i]);
+			}
+		}
+	}
+
+	/**
+	 * Exact heads-up equity of every class
+	 */
+	private static double[] headsUpEquities() {
+		Map<Long, Integer> boards = new HashMap<Long, Integer>();
+		int[] c = new int[5];
+		for(c[0] = 0; c[0] < Card.NUM_CARDS; c[0]++)
+		for(c[1] = c[0] + 1; c[1] < Card.NUM_CARDS; c[1]++)
+		for(c[2] = c[1] + 1; c[2] < Card.NUM_CARDS; c[2]++)
+		for(c[3] = c[2] + 1; c[3] < Card.NUM_CARDS; c[3]++)
+		for(c[4] = c[3] + 1; c[4] < Card.NUM_CARDS; c[4]++) {
+			boards.merge(HandIndexer.canonicalize(CardSet.of(c)), 1, Integer::sum);
+		}
+		long[] keys = new long[boards.size()];
+		int[] weights = new int[boards.size()];
+		int n = 0;
+		for(Map.Entry<Long, Integer> entry : boards.entrySet()) {
+			keys[n] = entry.getKey();
+			weights[n++] = entry.getValue();
+		}
+		// Wins (counting ties as half) and deals, by class
+		double[] totals = IntStream.range(0, n).parallel().collect(
+			() -> new double[2 * NUM_CLASSES],
+			(acc, b) -> countBoard(keys[b], weights[b], acc),
+			(one, two) -> { for(int i = 0; i < one.length; i++) one[i] += two[i]; });
+		double[] equities = new double[NUM_CLASSES];
+		for(int i = 0; i < NUM_CLASSES; i++) {
+			equities[i] = totals[2 * i] / totals[2 * i + 1];
+		}
+		return equities;
+	}
+
+	/**
+	 * Add the heads-up results of every pair of hole cards on a board.
+	 * Hole cards are sorted by rank and swept in increasing order, keeping
+	 * the number of weaker hole cards in total and per card, so wins and
+	 * ties against opponents that do not share a card are counted in
+	 * constant time.
+	 */
+	private static void countBoard(long board, int weight, double[] acc) {
+		int boardKey = HandEvaluator.rankKey(board);
+		long deck = CardSet.FULL & ~board;
+		int[] cards = new int[CardSet.size(deck)];
+		CardSet.toArray(deck, cards, 0);
+		int numHoles = cards.length * (cards.length - 1) / 2;
+		long[] sorted = new long[numHoles];
+		int[] first = new int[numHoles];
+		int[] second = new int[numHoles];
+		int h = 0;
+		for(int i = 0; i < cards.length; i++) {
+			for(int j = i + 1; j < cards.length; j++) {
+				int rank = HandEvaluator.rank(boardKey +
+					HandEvaluator.rankKey(cards[i]) + HandEvaluator.rankKey(cards[j]),
+					board | CardSet.of(cards[i]) | CardSet.of(cards[j]));
+				first[h] = cards[i];
+				second[h] = cards[j];
+				sorted[h] = ((long) rank << 32) | h;
+				h++;
+			}
+		}
+		Arrays.sort(sorted);
+		int[] below = new int[Card.NUM_CARDS];
+		int[] equal = new int[Card.NUM_CARDS];
+		int belowTotal = 0;
+		// Opponents left once my two cards are out
+		int opponents = (cards.length - 2) * (cards.length - 3) / 2;
+		for(int start = 0; start < numHoles; ) {
+			int end = start;
+			long rank = sorted[start] >>> 32;
+			while(end < numHoles && (sorted[end] >>> 32) == rank) {
+				int k = (int) sorted[end];
+				equal[first[k]]++;
+				equal[second[k]]++;
+				end++;
+			}
+			int group = end - start;
+			for(int i = start; i < end; i++) {
+				int k = (int) sorted[i];
+				int a = first[k];
+				int b = second[k];
+				int wins = belowTotal - below[a] - below[b];
+				int ties = group - equal[a] - equal[b] + 1;
+				int classIndex = CLASS_INDEX[a * Card.NUM_CARDS + b];
+				acc[2 * classIndex] += weight * (wins + ties / 2.0);
+				acc[2 * classIndex + 1] += weight * opponents;
+			}
+			for(int i = start; i < end; i++) {
+				int k = (int) sorted[i];
+				equal[first[k]]--;
+				equal[second[k]]--;
+				below[first[k]]++;
+				below[second[k]]++;
+			}
+			belowTotal += group;
+			start = end;
+		}
+	}
+
+	/**
+	 * Estimate the equity of a class against several opponents from random
+	 * deals. All the hole cards of a class have the same equity, so one of
+	 * them is used.
+	 */
+	private static double sampleEquity(int classIndex, int opponents,
+									   int samples, SplittableRandom random) {
+		int row = classIndex / Card.NUM_RANKS;
+		int column = classIndex % Card.NUM_RANKS;
+		int hole1 = Card.toIndex(Math.max(row, column), Card.CLUBS);
+		int hole2 = Card.toIndex(Math.min(row, column),
+								 row > column ? Card.CLUBS : Card.DIAMONDS);
+		return MonteCarloEquity.estimate(CardSet.of(hole1) | CardSet.of(hole2),
+										 CardSet.EMPTY, opponents, 0, samples,
+										 random).getEquity();
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path file = Paths.get(args.length > 0 ? args[0] : "preflop.dat");
+		if(!Files.exists(file)) {
+			int samples = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+			long start = System.currentTimeMillis();
+			generate(file, samples, 0L);
+			long end = System.currentTimeMillis();
+			System.out.println("Generated " + file + " in " +
+							   ((end - start) / 1000.0) + " sec");
+		}
+		PreflopTable table = load(file);
+		String[] hands = {"AdAs", "AdKd", "8d9d", "Kd9d", "Jc9d", "3d7c", "2d7c"};
+		for(int i = 0; i < hands.length; i++) {
+			long hole = CardSet.parse(hands[i]);
+			int card1 = CardSet.first(hole);
+			int card2 = CardSet.first(CardSet.removeFirst(hole));
+			System.out.println(hands[i] + " (" +
+				className(classIndex(card1, card2)) + "):\t" +
+				table.equity(card1, card2, 1) + "\t" +
+				table.equity(card1, card2, 5) + "\t" +
+				table.equity(card1, card2, 9));
+		}
+	}
+
+}
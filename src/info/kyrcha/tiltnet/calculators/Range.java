@@ -0,0 +1,213 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.Arrays;
+
+/**
+ * A weighted range of hole cards: a weight for each of the 1,326 two card
+ * combinations. Combinations are numbered in colexicographic order, i.e.
+ * the pair of card indices a &lt; b has number b * (b - 1) / 2 + a.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public class Range {
+
+	/** Number of two card combinations */
+	public final static int NUM_COMBOS = Card.NUM_CARDS * (Card.NUM_CARDS - 1) / 2;
+
+	private final static int[] FIRST = new int[NUM_COMBOS];
+
+	private final static int[] SECOND = new int[NUM_COMBOS];
+
+	static {
+		for(int b = 1; b < Card.NUM_CARDS; b++) {
+			for(int a = 0; a < b; a++) {
+				FIRST[comboIndex(a, b)] = a;
+				SECOND[comboIndex(a, b)] = b;
+			}
+		}
+	}
+
+	private final double[] weights = new double[NUM_COMBOS];
+
+	/**
+	 * Creates an empty range
+	 */
+	public Range() {
+	}
+
+	/**
+	 * A range holding every combination with weight 1
+	 * @return the range
+	 */
+	public static Range full() {
+		Range range = new Range();
+		Arrays.fill(range.weights, 1.0);
+		return range;
+	}
+
+	/**
+	 * A range holding a single combination with weight 1
+	 * @param holeCards two cards, see {@link CardSet}
+	 * @return the range
+	 */
+	public static Range of(long holeCards) {
+		Range range = new Range();
+		range.setWeight(CardSet.first(holeCards),
+						CardSet.first(CardSet.removeFirst(holeCards)), 1.0);
+		return range;
+	}
+
+	/**
+	 * Parse a comma separated list of starting hand classes ("AA", "AKs",
+	 * "T9o", or "AK" for both suited and offsuit) and combinations
+	 * ("AhKd"), each with weight 1
+	 *
+	 * @param range the range, e.g. "QQ,AKs,AhQd"
+	 * @return the range
+	 * @throws IllegalArgumentException if an item is not understood
+	 */
+	public static Range parse(String range) {
+		Range result = new Range();
+		String[] items = range.split(",");
+		for(int i = 0; i < items.length; i++) {
+			String item = items[i].trim();
+			if(item.isEmpty()) continue;
+			boolean found = false;
+			if(item.length() == 4) {
+				long cards = CardSet.parse(item);
+				if(cards >= 0 && CardSet.size(cards) == 2) {
+					result.setWeight(CardSet.first(cards),
+						CardSet.first(CardSet.removeFirst(cards)), 1.0);
+					found = true;
+				}
+			} else {
+				for(int c = 0; c < PreflopTable.NUM_CLASSES; c++) {
+					String name = PreflopTable.className(c);
+					if(name.equalsIgnoreCase(item) ||
+					   (item.length() == 2 && name.length() == 3 &&
+						name.regionMatches(true, 0, item, 0, 2))) {
+						result.setClassWeight(c, 1.0);
+						found = true;
+					}
+				}
+			}
+			if(!found) {
+				throw new IllegalArgumentException("Bad range item: " + item);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Number of the combination of two cards
+	 * @param card1 index of a card
+	 * @param card2 index of another card
+	 * @return the combination between 0 and 1325
+	 */
+	public static int comboIndex(int card1, int card2) {
+		int a = Math.min(card1, card2);
+		int b = Math.max(card1, card2);
+		return b * (b - 1) / 2 + a;
+	}
+
+	/**
+	 * The lower card of a combination
+	 * @param combo the combination
+	 * @return the card index
+	 */
+	public static int firstCard(int combo) {
+		return FIRST[combo];
+	}
+
+	/**
+	 * The higher card of a combination
+	 * @param combo the combination
+	 * @return the card index
+	 */
+	public static int secondCard(int combo) {
+		return SECOND[combo];
+	}
+
+	/**
+	 * The cards of a combination
+	 * @param combo the combination
+	 * @return the two cards, see {@link CardSet}
+	 */
+	public static long cards(int combo) {
+		return CardSet.of(FIRST[combo]) | CardSet.of(SECOND[combo]);
+	}
+
+	public double getWeight(int combo) {
+		return weights[combo];
+	}
+
+	public void setWeight(int combo, double weight) {
+		weights[combo] = weight;
+	}
+
+	public double getWeight(int card1, int card2) {
+		return weights[comboIndex(card1, card2)];
+	}
+
+	public void setWeight(int card1, int card2, double weight) {
+		weights[comboIndex(card1, card2)] = weight;
+	}
+
+	/**
+	 * Set the weight of every combination of a starting hand class
+	 * @param classIndex the class, see {@link PreflopTable#classIndex(int, int)}
+	 * @param weight the weight
+	 */
+	public void setClassWeight(int classIndex, double weight) {
+		for(int combo = 0; combo < NUM_COMBOS; combo++) {
+			if(PreflopTable.classIndex(FIRST[combo], SECOND[combo]) == classIndex) {
+				weights[combo] = weight;
+			}
+		}
+	}
+
+	/**
+	 * The range without the combinations blocked by some cards
+	 * @param deadCards the cards, see {@link CardSet}
+	 * @return a new range
+	 */
+	public Range without(long deadCards) {
+		Range range = new Range();
+		for(int combo = 0; combo < NUM_COMBOS; combo++) {
+			if((cards(combo) & deadCards) == 0) {
+				range.weights[combo] = weights[combo];
+			}
+		}
+		return range;
+	}
+
+	/**
+	 * Sum of the weights of the combinations not blocked by some cards
+	 * @param deadCards the cards, see {@link CardSet}
+	 * @return the total weight
+	 */
+	public double totalWeight(long deadCards) {
+		double total = 0;
+		for(int combo = 0; combo < NUM_COMBOS; combo++) {
+			if((cards(combo) & deadCards) == 0) {
+				total += weights[combo];
+			}
+		}
+		return total;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for(int combo = 0; combo < NUM_COMBOS; combo++) {
+			if(weights[combo] == 0) continue;
+			if(sb.length() > 0) sb.append(',');
+			sb.append(CardSet.toString(cards(combo)));
+			if(weights[combo] != 1.0) sb.append(':').append(weights[combo]);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,245 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.Arrays;
+
+/**
+ * Equity of a weighted range against another weighted range, or of a hand
+ * against a range, on a given board.
+ *
+ * Every runout of the board is enumerated and, on each complete board,
+ * every combination with weight in either range is ranked once. The
+ * combinations are then sorted by rank and swept in increasing order while
+ * keeping the villain weight seen so far in total and per card. For a hero
+ * combination the villain weight it beats, ties with and faces is then the
+ * total minus the weight on its two cards plus the weight of the same
+ * combination, so blockers are handled exactly without looking at pairs of
+ * combinations.
+ *
+ * The cost is one evaluation per combination and runout, which is fine on
+ * the flop and later streets. Preflop it enumerates all 1.7 million boards.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class RangeEquity {
+
+	private RangeEquity() {
+	}
+
+	/**
+	 * Equity of a hand against a range
+	 *
+	 * @param holeCards the hero's cards, see {@link CardSet}
+	 * @param villain the villain's range
+	 * @param boardCards community cards so far, see {@link CardSet}
+	 * @return share of the pot won by the hero on average
+	 */
+	public static double equity(long holeCards, Range villain, long boardCards) {
+		return equity(Range.of(holeCards), villain, boardCards);
+	}
+
+	/**
+	 * Equity of a range against a range
+	 *
+	 * @param hero the hero's range
+	 * @param villain the villain's range
+	 * @param boardCards community cards so far, see {@link CardSet}
+	 * @return share of the pot won by the hero on average
+	 */
+	public static double equity(Range hero, Range villain, long boardCards) {
+		double[] won = new double[Range.NUM_COMBOS];
+		double[] played = new double[Range.NUM_COMBOS];
+		accumulate(hero, villain, boardCards, won, played);
+		double totalWon = 0;
+		double totalPlayed = 0;
+		for(int combo = 0; combo < Range.NUM_COMBOS; combo++) {
+			totalWon += hero.getWeight(combo) * won[combo];
+			totalPlayed += hero.getWeight(combo) * played[combo];
+		}
+		return totalWon / totalPlayed;
+	}
+
+	/**
+	 * Equity of every combination of the hero's range against a range
+	 *
+	 * @param hero the hero's range
+	 * @param villain the villain's range
+	 * @param boardCards community cards so far, see {@link CardSet}
+	 * @return the equity of each combination, NaN where the combination is
+	 * not in the range, is blocked or meets no villain combination
+	 */
+	public static double[] comboEquities(Range hero, Range villain,
+										 long boardCards) {
+		double[] won = new double[Range.NUM_COMBOS];
+		double[] played = new double[Range.NUM_COMBOS];
+		accumulate(hero, villain, boardCards, won, played);
+		double[] equities = new double[Range.NUM_COMBOS];
+		for(int combo = 0; combo < Range.NUM_COMBOS; combo++) {
+			equities[combo] = (hero.getWeight(combo) > 0 && played[combo] > 0) ?
+				won[combo] / played[combo] : Double.NaN;
+		}
+		return equities;
+	}
+
+	/**
+	 * For every hero combination, sum over the runouts the villain weight
+	 * it wins (ties counting half) and the villain weight it meets
+	 */
+	private static void accumulate(Range hero, Range villain, long boardCards,
+								   double[] won, double[] played) {
+		int toCome = 5 - CardSet.size(boardCards);
+		if(toCome < 0) {
+			throw new IllegalArgumentException("Too many board cards: " +
+				CardSet.toString(boardCards));
+		}
+		// Combinations that matter: not blocked and in either range
+		int n = 0;
+		int[] combos = new int[Range.NUM_COMBOS];
+		for(int combo = 0; combo < Range.NUM_COMBOS; combo++) {
+			if((Range.cards(combo) & boardCards) == 0 &&
+			   (hero.getWeight(combo) > 0 || villain.getWeight(combo) > 0)) {
+				combos[n++] = combo;
+			}
+		}
+		Sweep sweep = new Sweep(hero, villain, Arrays.copyOf(combos, n),
+								won, played);
+		long deck = CardSet.FULL & ~boardCards;
+		runouts(sweep, deck, toCome, boardCards,
+				HandEvaluator.rankKey(boardCards));
+	}
+
+	private static void runouts(Sweep sweep, long deck, int toCome,
+								long board, int boardKey) {
+		if(toCome == 0) {
+			sweep.board(board, boardKey);
+			return;
+		}
+		for(long s = deck; s != 0; s = CardSet.removeFirst(s)) {
+			int card = CardSet.first(s);
+			runouts(sweep, CardSet.removeFirst(s), toCome - 1,
+					board | CardSet.of(card),
+					boardKey + HandEvaluator.rankKey(card));
+		}
+	}
+
+	/**
+	 * Ranks and sweeps the combinations on complete boards, reusing its
+	 * buffers from board to board
+	 */
+	private final static class Sweep {
+
+		private final int[] combos;
+
+		private final double[] heroWeights;
+
+		private final double[] villainWeights;
+
+		private final double[] won;
+
+		private final double[] played;
+
+		private final long[] sorted;
+
+		private final double[] villainBelow = new double[Card.NUM_CARDS];
+
+		private final double[] villainEqual = new double[Card.NUM_CARDS];
+
+		private final double[] villainLive = new double[Card.NUM_CARDS];
+
+		Sweep(Range hero, Range villain, int[] combos, double[] won,
+			  double[] played) {
+			this.combos = combos;
+			this.won = won;
+			this.played = played;
+			this.heroWeights = new double[combos.length];
+			this.villainWeights = new double[combos.length];
+			for(int i = 0; i < combos.length; i++) {
+				heroWeights[i] = hero.getWeight(combos[i]);
+				villainWeights[i] = villain.getWeight(combos[i]);
+			}
+			this.sorted = new long[combos.length];
+		}
+
+		void board(long board, int boardKey) {
+			int n = 0;
+			double villainTotal = 0;
+			Arrays.fill(villainLive, 0);
+			for(int i = 0; i < combos.length; i++) {
+				int a = Range.firstCard(combos[i]);
+				int b = Range.secondCard(combos[i]);
+				long cards = CardSet.of(a) | CardSet.of(b);
+				if((cards & board) != 0) continue;
+				int rank = HandEvaluator.rank(boardKey +
+					HandEvaluator.rankKey(a) + HandEvaluator.rankKey(b),
+					board | cards);
+				sorted[n++] = ((long) rank << 32) | i;
+				villainTotal += villainWeights[i];
+				villainLive[a] += villainWeights[i];
+				villainLive[b] += villainWeights[i];
+			}
+			Arrays.sort(sorted, 0, n);
+			Arrays.fill(villainBelow, 0);
+			double belowTotal = 0;
+			for(int start = 0; start < n; ) {
+				long rank = sorted[start] >>> 32;
+				int end = start;
+				double equalTotal = 0;
+				while(end < n && (sorted[end] >>> 32) == rank) {
+					int i = (int) sorted[end];
+					int a = Range.firstCard(combos[i]);
+					int b = Range.secondCard(combos[i]);
+					villainEqual[a] += villainWeights[i];
+					villainEqual[b] += villainWeights[i];
+					equalTotal += villainWeights[i];
+					end++;
+				}
+				for(int k = start; k < end; k++) {
+					int i = (int) sorted[k];
+					if(heroWeights[i] == 0) continue;
+					int a = Range.firstCard(combos[i]);
+					int b = Range.secondCard(combos[i]);
+					double same = villainWeights[i];
+					double below = belowTotal - villainBelow[a] - villainBelow[b];
+					double equal = equalTotal - villainEqual[a] -
+								   villainEqual[b] + same;
+					double live = villainTotal - villainLive[a] -
+								  villainLive[b] + same;
+					won[combos[i]] += below + equal / 2;
+					played[combos[i]] += live;
+				}
+				for(int k = start; k < end; k++) {
+					int i = (int) sorted[k];
+					int a = Range.firstCard(combos[i]);
+					int b = Range.secondCard(combos[i]);
+					villainEqual[a] -= villainWeights[i];
+					villainEqual[b] -= villainWeights[i];
+					villainBelow[a] += villainWeights[i];
+					villainBelow[b] += villainWeights[i];
+				}
+				belowTotal += equalTotal;
+				start = end;
+			}
+		}
+
+	}
+
+	public static void main(String[] args) {
+		long board = CardSet.parse("8h6c4h");
+		System.out.println("7h9h vs random on 8h6c4h : " +
+			equity(CardSet.parse("7h9h"), Range.full(), board));
+		System.out.println("Hand Strength of 7h9h-8h6c4h : " +
+			Hand.handStrength(CardSet.parse("7h9h"), board));
+		Range villain = Range.parse("TT,JJ,QQ,KK,AA,AK");
+		System.out.println("7h9h vs TT,JJ,QQ,KK,AA,AK on 8h6c4h : " +
+			equity(CardSet.parse("7h9h"), villain, board));
+		long start = System.currentTimeMillis();
+		double e = equity(Range.parse("22,33,44,55,66,77,88,99,AK,AQ,KQ,JTs"),
+						  villain, board);
+		long end = System.currentTimeMillis();
+		System.out.println("Range vs range on 8h6c4h : " + e + " (" +
+						   (end - start) + " ms)");
+	}
+
+}
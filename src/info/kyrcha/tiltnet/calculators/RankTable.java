@@ -0,0 +1,268 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.zip.CRC32;
+
+/**
+ * The rank of every one of the 133,784,560 seven card hands, generated once
+ * with {@link #generate(Path)} and memory mapped by {@link #load(Path)}.
+ * Loading builds no tables, so it costs a mapping, and JVMs on the same
+ * host share the file through the page cache.
+ *
+ * Hands are numbered in colexicographic order: the cards c1 &lt; ... &lt;
+ * c7 have number C(c1, 1) + C(c2, 2) + ... + C(c7, 7). There are only
+ * 4,824 distinct ranks, so the file holds them once in its header and a
+ * two byte ordinal per hand.
+ *
+ * File format (big endian): magic, version, number of hands, number of
+ * distinct ranks, CRC-32 of the ordinals, the distinct ranks in increasing
+ * order, then the ordinal of every hand.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public class RankTable {
+
+	/** Number of seven card hands */
+	public final static int NUM_HANDS = 133784560;
+
+	private final static int MAGIC = 0x52414E4B;
+
+	private final static int VERSION = 1;
+
+	private final static int CARDS = Hand.MAX_CARDS;
+
+	/** Binomial coefficients C(n, k) for n up to 52 and k up to 7 */
+	private final static int[][] CHOOSE = new int[Card.NUM_CARDS + 1][CARDS + 1];
+
+	static {
+		for(int n = 0; n <= Card.NUM_CARDS; n++) {
+			CHOOSE[n][0] = 1;
+			for(int k = 1; k <= Math.min(n, CARDS); k++) {
+				CHOOSE[n][k] = CHOOSE[n - 1][k - 1] +
+							   (k <= n - 1 ? CHOOSE[n - 1][k] : 0);
+			}
+		}
+	}
+
+	private final ByteBuffer buffer;
+
+	private final int[] ranks;
+
+	private final int dataOffset;
+
+	private RankTable(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.ranks = new int[buffer.getInt(12)];
+		for(int i = 0; i < ranks.length; i++) {
+			ranks[i] = buffer.getInt(headerSize(0) + 4 * i);
+		}
+		this.dataOffset = headerSize(ranks.length);
+	}
+
+	private static int headerSize(int numRanks) {
+		return 5 * 4 + 4 * numRanks;
+	}
+
+	/**
+	 * Number of a seven card hand
+	 * @param cardSet seven cards, see {@link CardSet}
+	 * @return the number, between 0 and 133,784,559
+	 */
+	public static int index(long cardSet) {
+		int index = 0;
+		int k = 1;
+		for(long s = cardSet; s != 0; s &= s - 1) {
+			index += CHOOSE[Long.numberOfTrailingZeros(s)][k++];
+		}
+		return index;
+	}
+
+	/**
+	 * Memory map a table file, checking its header only
+	 * @param file the file written by {@link #generate(Path)}
+	 * @return the table
+	 * @throws IOException if the file cannot be read or is not a table
+	 */
+	public static RankTable load(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if(channel.size() < headerSize(0) ||
+			   channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Not a rank table: " + file);
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+											channel.size());
+			int numRanks = buffer.getInt(12);
+			if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION ||
+			   buffer.getInt(8) != NUM_HANDS || numRanks <= 0 ||
+			   numRanks > Character.MAX_VALUE ||
+			   buffer.limit() != headerSize(numRanks) + 2L * NUM_HANDS) {
+				throw new IOException("Not a rank table: " + file);
+			}
+			return new RankTable(buffer);
+		}
+	}
+
+	/**
+	 * Check the ordinals against the checksum of the header. This reads the
+	 * whole file, so it is left out of {@link #load(Path)}.
+	 *
+	 * @return true if the table is intact
+	 */
+	public boolean verify() {
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate().position(dataOffset));
+		return (int) crc.getValue() == buffer.getInt(16);
+	}
+
+	/**
+	 * Rank of a seven card hand
+	 * @param cardSet seven cards, see {@link CardSet}
+	 * @return the rank, as returned by {@link Hand#rankHand(Hand)}
+	 */
+	public int rank(long cardSet) {
+		return ranks[buffer.getChar(dataOffset + 2 * index(cardSet))];
+	}
+
+	/**
+	 * Rank of a seven card hand
+	 * @return the rank, as returned by {@link Hand#rankHand(Hand)}
+	 */
+	public int rank(int c1, int c2, int c3, int c4, int c5, int c6, int c7) {
+		return rank((1L << c1) | (1L << c2) | (1L << c3) | (1L << c4) |
+					(1L << c5) | (1L << c6) | (1L << c7));
+	}
+
+	/**
+	 * Generate the table with the {@link HandEvaluator}. The hands are
+	 * enumerated in number order keeping the rank key and mask of the cards
+	 * chosen so far, in two passes: one finding the distinct ranks and one
+	 * writing the ordinals. The file is written under a temporary name and
+	 * moved in place once complete.
+	 *
+	 * @param file the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void generate(Path file) throws IOException {
+		boolean[] seen = new boolean[Hand.NUM_HANDS * Card.NUM_RANKS *
+			Card.NUM_RANKS * Card.NUM_RANKS * Card.NUM_RANKS * Card.NUM_RANKS];
+		enumerate((index, rank) -> seen[rank] = true);
+		int numRanks = 0;
+		for(boolean s : seen) if(s) numRanks++;
+		int[] ranks = new int[numRanks];
+		char[] ordinals = new char[seen.length];
+		numRanks = 0;
+		for(int rank = 0; rank < seen.length; rank++) {
+			if(seen[rank]) {
+				ordinals[rank] = (char) numRanks;
+				ranks[numRanks++] = rank;
+			}
+		}
+		int header = headerSize(numRanks);
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try(FileChannel channel = FileChannel.open(temporary,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+				0, header + 2L * NUM_HANDS);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(8, NUM_HANDS);
+			buffer.putInt(12, numRanks);
+			for(int i = 0; i < numRanks; i++) {
+				buffer.putInt(headerSize(0) + 4 * i, ranks[i]);
+			}
+			enumerate((index, rank) ->
+				buffer.putChar(header + 2 * index, ordinals[rank]));
+			CRC32 crc = new CRC32();
+			crc.update(buffer.duplicate().position(header));
+			buffer.putInt(16, (int) crc.getValue());
+			buffer.force();
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private interface Visitor {
+		void visit(int index, int rank);
+	}
+
+	/**
+	 * Visit every seven card hand in number order
+	 */
+	private static void enumerate(Visitor visitor) {
+		int index = 0;
+		for(int c7 = 6; c7 < Card.NUM_CARDS; c7++) {
+			int k7 = HandEvaluator.rankKey(c7);
+			long m7 = CardSet.of(c7);
+			for(int c6 = 5; c6 < c7; c6++) {
+				int k6 = k7 + HandEvaluator.rankKey(c6);
+				long m6 = m7 | CardSet.of(c6);
+				for(int c5 = 4; c5 < c6; c5++) {
+					int k5 = k6 + HandEvaluator.rankKey(c5);
+					long m5 = m6 | CardSet.of(c5);
+					for(int c4 = 3; c4 < c5; c4++) {
+						int k4 = k5 + HandEvaluator.rankKey(c4);
+						long m4 = m5 | CardSet.of(c4);
+						for(int c3 = 2; c3 < c4; c3++) {
+							int k3 = k4 + HandEvaluator.rankKey(c3);
+							long m3 = m4 | CardSet.of(c3);
+							for(int c2 = 1; c2 < c3; c2++) {
+								int k2 = k3 + HandEvaluator.rankKey(c2);
+								long m2 = m3 | CardSet.of(c2);
+								for(int c1 = 0; c1 < c2; c1++) {
+									visitor.visit(index++, HandEvaluator.rank(
+										k2 + HandEvaluator.rankKey(c1),
+										m2 | CardSet.of(c1)));
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path file = Paths.get(args.length > 0 ? args[0] : "ranks7.dat");
+		if(!Files.exists(file)) {
+			long start = System.currentTimeMillis();
+			generate(file);
+			long end = System.currentTimeMillis();
+			System.out.println("Generated " + file + " in " +
+							   ((end - start) / 1000.0) + " sec");
+		}
+		long start = System.nanoTime();
+		RankTable table = load(file);
+		long end = System.nanoTime();
+		System.out.println("Loaded in " + (end - start) / 1000 + " us, " +
+						   table.ranks.length + " distinct ranks");
+		start = System.currentTimeMillis();
+		System.out.println("Checksum " + (table.verify() ? "ok" : "BAD") +
+			" (" + (System.currentTimeMillis() - start) + " ms)");
+		// Compare with the reference evaluator on random hands
+		SplittableRandom random = new SplittableRandom(1);
+		Deck deck = new Deck(random);
+		int mismatches = 0;
+		int hands = 100000;
+		for(int i = 0; i < hands; i++) {
+			long cards = deck.deal(Hand.MAX_CARDS);
+			if(table.rank(cards) != Hand.rankHand(new Hand(cards))) {
+				mismatches++;
+			}
+		}
+		System.out.println("Mismatches with Hand.rankHand: " + mismatches +
+						   " out of " + hands);
+	}
+
+}
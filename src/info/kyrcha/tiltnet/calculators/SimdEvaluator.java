@@ -0,0 +1,300 @@
+/*
+ * LICENSE
+ */
+package info.kyrcha.tiltnet.calculators;
+
+import java.util.SplittableRandom;
+
+/**
+ * Ranks batches of card masks (see {@link CardSet}) several hands per
+ * instruction with the incubating Vector API when it is available, and
+ * with {@link BatchEvaluator} otherwise. The vector path is compiled
+ * separately from <code>src-vector</code> (<code>ant vector.build</code>)
+ * and needs <code>--add-modules jdk.incubator.vector</code> at run time;
+ * it is loaded by name, so this class works without it. The vector path is
+ * off unless the system property <code>tiltnet.vector</code> is true: it
+ * has not measured faster than the scalar batch path.
+ *
+ * Instead of table lookups, which the Vector API can only do as gathers,
+ * every lane computes the whole hand with shifts and logic on the mask:
+ * <ul>
+ * <li>the rank histogram, as three bit planes over the 13 ranks holding
+ * bit 0, 1 and 2 of the number of cards of each rank, added up from the
+ * four suit masks with bit sliced full adders,</li>
+ * <li>the flush suit, from a SWAR population count of the four suits
+ * spread into 16 bit fields of one long,</li>
+ * <li>straight and straight flush tops, by and-ing the rank masks shifted
+ * by one to four ranks, with the ace also below the two.</li>
+ * </ul>
+ * The lanes are then stored as two longs per hand and {@link #finish(long,
+ * long)} turns them into the rank of {@link Hand#rankHand(Hand)} with a few
+ * leading zero counts. The same lane arithmetic is written in scalar form
+ * below, for the tail of a batch and as a reference.
+ *
+ * @author Kyriakos Chatzidimitriou (kyrcha@gmail.com)
+ */
+public final class SimdEvaluator {
+
+	/** System property turning the vector path on when set to true */
+	public final static String PROPERTY = "tiltnet.vector";
+
+	/** Ranks of one suit */
+	final static long RANK_MASK = (1L << Card.NUM_RANKS) - 1;
+
+	/** Low bit of each of four 16 bit fields */
+	final static long FIELDS = 0x0001000100010001L;
+
+	/** Ranks per category, see {@link Hand#rankHand(Hand)} */
+	private final static int SHIFT = Card.NUM_RANKS * Card.NUM_RANKS *
+		Card.NUM_RANKS * Card.NUM_RANKS * Card.NUM_RANKS;
+
+	/**
+	 * Ranks a range of a batch
+	 */
+	interface Ranker {
+
+		void rank(long[] masks, int[] ranks, int from, int to);
+
+		/** Hands per instruction */
+		int lanes();
+
+	}
+
+	private final static Ranker VECTOR = load();
+
+	private SimdEvaluator() {
+	}
+
+	private static Ranker load() {
+		if(!Boolean.getBoolean(PROPERTY)) {
+			return null;
+		}
+		try {
+			return (Ranker) Class.forName(
+				"info.kyrcha.tiltnet.calculators.VectorRanker")
+				.getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException | LinkageError e) {
+			// Not compiled, or jdk.incubator.vector not added
+			return null;
+		}
+	}
+
+	/**
+	 * Whether batches are ranked with the Vector API
+	 * @return true if the vector path is loaded
+	 */
+	public static boolean isVectorized() {
+		return VECTOR != null;
+	}
+
+	/**
+	 * Number of hands ranked per instruction
+	 * @return the vector lanes, 1 without the vector path
+	 */
+	public static int lanes() {
+		return VECTOR != null ? VECTOR.lanes() : 1;
+	}
+
+	/**
+	 * Rank masks of five to seven cards
+	 *
+	 * @param masks the hands, see {@link CardSet}
+	 * @param ranks filled with the rank of each hand
+	 * @param from first hand
+	 * @param to hand after the last
+	 */
+	public static void rank(long[] masks, int[] ranks, int from, int to) {
+		if(to > ranks.length || to > masks.length) {
+			throw new IllegalArgumentException("Batch of " + (to - from) +
+				" hands does not fit the arrays");
+		}
+		if(VECTOR != null) {
+			VECTOR.rank(masks, ranks, from, to);
+		} else {
+			BatchEvaluator.rank(masks, ranks, from, to);
+		}
+	}
+
+	/**
+	 * Rank all the masks
+	 *
+	 * @param masks the hands, see {@link CardSet}
+	 * @param ranks filled with the rank of each hand
+	 */
+	public static void rank(long[] masks, int[] ranks) {
+		rank(masks, ranks, 0, ranks.length);
+	}
+
+	/**
+	 * Rank a mask with the scalar form of the lane arithmetic
+	 *
+	 * @param mask five to seven cards, see {@link CardSet}
+	 * @return the rank, as returned by {@link Hand#rankHand(Hand)}
+	 */
+	static int rank(long mask) {
+		return finish(planes(mask), flags(mask));
+	}
+
+	/**
+	 * The rank histogram of a hand: the ranks with bit 0, 1 and 2 of their
+	 * count set, 13 bits each
+	 */
+	static long planes(long mask) {
+		long a = mask & RANK_MASK;
+		long b = (mask >>> Card.NUM_RANKS) & RANK_MASK;
+		long c = (mask >>> (2 * Card.NUM_RANKS)) & RANK_MASK;
+		long d = (mask >>> (3 * Card.NUM_RANKS)) & RANK_MASK;
+		long ab = a ^ b;
+		long cd = c ^ d;
+		long carryAb = a & b;
+		long carryCd = c & d;
+		long carry = ab & cd;
+		long p0 = ab ^ cd;
+		long p1 = carryAb ^ carryCd ^ carry;
+		long p2 = (carryAb & carryCd) | (carry & (carryAb ^ carryCd));
+		return p0 | (p1 << Card.NUM_RANKS) | (p2 << (2 * Card.NUM_RANKS));
+	}
+
+	/**
+	 * The flush ranks (0 if none), the straight flush tops and the straight
+	 * tops of a hand, 13 bits each
+	 */
+	static long flags(long mask) {
+		long a = mask & RANK_MASK;
+		long b = (mask >>> Card.NUM_RANKS) & RANK_MASK;
+		long c = (mask >>> (2 * Card.NUM_RANKS)) & RANK_MASK;
+		long d = (mask >>> (3 * Card.NUM_RANKS)) & RANK_MASK;
+		// Population count of each suit in a 16 bit field
+		long spread = a | (b << 16) | (c << 32) | (d << 48);
+		long x = spread - ((spread >>> 1) & 0x5555555555555555L);
+		x = (x & 0x3333333333333333L) + ((x >>> 2) & 0x3333333333333333L);
+		x = (x + (x >>> 4)) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x + (x >>> 8)) & (0x1F * FIELDS);
+		// Bit 4 of a field is set when the count is at least five
+		long flushSuit = ((x + 11 * FIELDS) >>> 4) & FIELDS;
+		// All 13 rank bits of the flush suit's field
+		long f = spread & ((flushSuit << Card.NUM_RANKS) - flushSuit);
+		long flush = (f | (f >>> 16) | (f >>> 32) | (f >>> 48)) & RANK_MASK;
+		return flush | (straights(flush) << Card.NUM_RANKS) |
+			   (straights(a | b | c | d) << (2 * Card.NUM_RANKS));
+	}
+
+	/** The top ranks of the straights of a rank mask */
+	private static long straights(long ranks) {
+		long low = (ranks << 1) | (ranks >>> (Card.NUM_RANKS - 1));
+		long tops = low & (low << 1) & (low << 2) & (low << 3) & (low << 4);
+		return (tops >>> 1) & RANK_MASK;
+	}
+
+	private static int top(int ranks) {
+		return 31 - Integer.numberOfLeadingZeros(ranks);
+	}
+
+	/** The five highest ranks as base 13 digits */
+	private static int kickers(int ranks) {
+		int value = 0;
+		for(int i = 0; i < 5; i++) {
+			int k = top(ranks);
+			value = value * Card.NUM_RANKS + k;
+			ranks &= ~(1 << k);
+		}
+		return value;
+	}
+
+	/**
+	 * The rank of a hand from its histogram and flags, following the rules of
+	 * {@link Hand#rankHand(Hand)}, missing kickers included
+	 *
+	 * @param planes see {@link #planes(long)}
+	 * @param flags see {@link #flags(long)}
+	 * @return the rank
+	 */
+	static int finish(long planes, long flags) {
+		int p0 = (int) (planes & RANK_MASK);
+		int p1 = (int) ((planes >>> Card.NUM_RANKS) & RANK_MASK);
+		int p2 = (int) (planes >>> (2 * Card.NUM_RANKS));
+		int flush = (int) (flags & RANK_MASK);
+		int straightFlush = (int) ((flags >>> Card.NUM_RANKS) & RANK_MASK);
+		int straight = (int) (flags >>> (2 * Card.NUM_RANKS));
+		if(straightFlush != 0) {
+			return Hand.STRAIGHT_FLUSH * SHIFT + top(straightFlush);
+		}
+		int present = p0 | p1 | p2;
+		if(p2 != 0) {
+			int quads = top(p2);
+			return Hand.FOUR * SHIFT + quads * Card.NUM_RANKS +
+				   top(present & ~(1 << quads));
+		}
+		int trips = p0 & p1;
+		int pairs = p1 & ~p0;
+		int singles = p0 & ~p1;
+		int trip = top(trips);
+		if(trip >= 0) {
+			int pair = Math.max(top(pairs), top(trips & ~(1 << trip)));
+			if(pair >= 0) {
+				return Hand.FULL_HOUSE * SHIFT + trip * Card.NUM_RANKS + pair;
+			}
+		}
+		if(flush != 0) {
+			return Hand.FLUSH * SHIFT + kickers(flush);
+		}
+		if(straight != 0) {
+			return Hand.STRAIGHT * SHIFT + top(straight);
+		}
+		int k1 = top(singles);
+		int k2 = top(singles & ~(1 << k1));
+		if(trip >= 0) {
+			return Hand.TRIPS * SHIFT + (trip * Card.NUM_RANKS + k1) *
+				   Card.NUM_RANKS + k2;
+		}
+		int pair1 = top(pairs);
+		if(pair1 < 0) {
+			return Hand.HIGH_CARD * SHIFT + kickers(present);
+		}
+		int pair2 = top(pairs & ~(1 << pair1));
+		if(pair2 >= 0) {
+			int pair3 = top(pairs & ~(1 << pair1) & ~(1 << pair2));
+			return Hand.TWO_PAIRS * SHIFT + (pair1 * Card.NUM_RANKS + pair2) *
+				   Card.NUM_RANKS + Math.max(k1, pair3);
+		}
+		int k3 = top(singles & ~(1 << k1) & ~(1 << k2));
+		return Hand.PAIR * SHIFT + ((pair1 * Card.NUM_RANKS + k1) *
+			   Card.NUM_RANKS + k2) * Card.NUM_RANKS + k3;
+	}
+
+	public static void main(String[] args) {
+		System.out.println("Vector API " + (isVectorized() ?
+			"on, " + lanes() + " lanes" : "off, scalar batches"));
+		// Cross-check with the reference evaluator
+		Deck deck = new Deck(new SplittableRandom(1));
+		int hands = 300000;
+		long[] masks = new long[hands];
+		for(int h = 0; h < hands; h++) {
+			masks[h] = deck.deal(5 + h % 3);
+		}
+		int[] ranks = new int[hands];
+		rank(masks, ranks);
+		int mismatches = 0;
+		for(int h = 0; h < hands; h++) {
+			int reference = Hand.rankHand(new Hand(masks[h]));
+			if(ranks[h] != reference || rank(masks[h]) != reference) {
+				mismatches++;
+			}
+		}
+		System.out.println("Mismatches with Hand.rankHand: " + mismatches +
+						   " out of " + hands);
+		// Throughput against the scalar batch path
+		int[] scalar = new int[hands];
+		for(int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			for(int i = 0; i < 10; i++) rank(masks, ranks);
+			long middle = System.nanoTime();
+			for(int i = 0; i < 10; i++) BatchEvaluator.rank(masks, scalar);
+			long end = System.nanoTime();
+			System.out.println("ns/hand: this " +
+				((middle - start) / (10.0 * hands)) + ", BatchEvaluator " +
+				((end - middle) / (10.0 * hands)));
+		}
+	}
+
+}